@@ -0,0 +1,421 @@
+package com.playtech.assignment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Owner and deposit history of every payment account (card number or IBAN) that had an approved transaction.
+ * <p>
+ * The state of an account is one int: the owning user's index and a flag telling whether an approved deposit was made
+ * with it. Numeric card numbers are packed into a long; IBANs and anything else are interned as UTF-8 bytes in one
+ * shared arena, so millions of accounts cost a few dozen bytes each instead of a String plus a map entry.
+ */
+class AccountRegistry {
+    /**
+     * State of an account that was never used in an approved transaction
+     */
+    static final int UNUSED = 0;
+
+    private static final int DEPOSIT_FLAG = 1;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    //numeric cards, a slot is empty while its state is UNUSED
+    private long[] cardKeys;
+    private int[] cardStates;
+    private int cardCount;
+
+    //other accounts: slots hold arena offset + 1, 0 is an empty slot
+    private int[] accountSlots;
+    private int[] accountStates;
+    private int accountCount;
+    private byte[] arena;
+    private int arenaSize;
+
+    AccountRegistry() {
+        this(1024);
+    }
+
+    /**
+     * @param capacity slots of each table, a power of two, they still grow past it
+     */
+    AccountRegistry(int capacity) {
+        cardKeys = new long[capacity];
+        cardStates = new int[capacity];
+        accountSlots = new int[capacity];
+        accountStates = new int[capacity];
+        arena = new byte[capacity * 16];
+    }
+
+    /**
+     * @param account card number or IBAN
+     * @return state of the account, UNUSED if it was never used in an approved transaction
+     */
+    int state(CharSequence account) {
+        long card = packCard(account);
+        if (card >= 0) return cardStates[findCard(cardKeys, cardStates, card)];
+        account = utf8(account);
+        return accountStates[findAccount(account, hash(account))];
+    }
+
+    /**
+     * Records an approved transaction made with the account.
+     *
+     * @param account   card number or IBAN
+     * @param userIndex index of the user, see User.getIndex
+     * @param deposit   true if the transaction was a deposit
+     */
+    void approved(CharSequence account, int userIndex, boolean deposit) {
+        long card = packCard(account);
+        if (card >= 0) {
+            int slot = findCard(cardKeys, cardStates, card);
+            if (cardStates[slot] == UNUSED) {
+                cardKeys[slot] = card;
+                cardCount++;
+            }
+            cardStates[slot] = merge(cardStates[slot], userIndex, deposit);
+            if (cardCount > cardKeys.length * LOAD_FACTOR) growCards();
+            return;
+        }
+
+        account = utf8(account);
+        int hash = hash(account);
+        int slot = findAccount(account, hash);
+        if (accountSlots[slot] == 0) {
+            accountSlots[slot] = intern(account) + 1;
+            accountCount++;
+        }
+        accountStates[slot] = merge(accountStates[slot], userIndex, deposit);
+        if (accountCount > accountSlots.length * LOAD_FACTOR) growAccounts();
+    }
+
+    /**
+     * Sets the state of the account, replacing what its transactions made of it.
+     *
+     * @param account card number or IBAN
+     * @param state   state to set, not UNUSED
+     */
+    void set(CharSequence account, int state) {
+        long card = packCard(account);
+        if (card >= 0) {
+            int slot = findCard(cardKeys, cardStates, card);
+            if (cardStates[slot] == UNUSED) {
+                cardKeys[slot] = card;
+                cardCount++;
+            }
+            cardStates[slot] = state;
+            if (cardCount > cardKeys.length * LOAD_FACTOR) growCards();
+            return;
+        }
+
+        account = utf8(account);
+        int slot = findAccount(account, hash(account));
+        if (accountSlots[slot] == 0) {
+            accountSlots[slot] = intern(account) + 1;
+            accountCount++;
+        }
+        accountStates[slot] = state;
+        if (accountCount > accountSlots.length * LOAD_FACTOR) growAccounts();
+    }
+
+    int size() {
+        return cardCount + accountCount;
+    }
+
+    /**
+     * Receives the accounts of the registry, see forEach.
+     */
+    interface AccountAction {
+        /**
+         * @param account buffer with the account, its UTF-8 bytes like in the arena, only valid during the call
+         * @param length  bytes of the account
+         * @param state
+         * @throws IOException
+         */
+        void accept(byte[] account, int length, int state) throws IOException;
+    }
+
+    /**
+     * @param action called with every account and its state
+     * @throws IOException if the action throws it
+     */
+    void forEach(AccountAction action) throws IOException {
+        byte[] card = new byte[19];
+        for (int i = 0; i < cardKeys.length; i++) {
+            if (cardStates[i] != UNUSED) action.accept(card, unpackCard(cardKeys[i], card), cardStates[i]);
+        }
+        byte[] account = new byte[255];
+        for (int i = 0; i < accountSlots.length; i++) {
+            if (accountSlots[i] == 0) continue;
+            int offset = accountSlots[i] - 1;
+            int length = arena[offset] & 0xff;
+            System.arraycopy(arena, offset + 1, account, 0, length);
+            action.accept(account, length, accountStates[i]);
+        }
+    }
+
+    /**
+     * Removes every account, the tables keep their capacity.
+     */
+    void clear() {
+        Arrays.fill(cardStates, UNUSED);
+        cardCount = 0;
+        Arrays.fill(accountSlots, 0);
+        Arrays.fill(accountStates, UNUSED);
+        accountCount = 0;
+        arenaSize = 0;
+    }
+
+    /**
+     * Writes the tables and the arena as they are, so reading them back needs no rehashing.
+     *
+     * @param out
+     * @throws IOException
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(cardCount);
+        out.writeInt(cardKeys.length);
+        for (int i = 0; i < cardKeys.length; i++) {
+            out.writeLong(cardKeys[i]);
+            out.writeInt(cardStates[i]);
+        }
+        out.writeInt(accountCount);
+        out.writeInt(accountSlots.length);
+        for (int i = 0; i < accountSlots.length; i++) {
+            out.writeInt(accountSlots[i]);
+            out.writeInt(accountStates[i]);
+        }
+        out.writeInt(arenaSize);
+        out.write(arena, 0, arenaSize);
+    }
+
+    /**
+     * @param in
+     * @return the registry written by writeTo
+     * @throws IOException
+     */
+    static AccountRegistry readFrom(DataInput in) throws IOException {
+        AccountRegistry accounts = new AccountRegistry();
+        accounts.cardCount = in.readInt();
+        int capacity = in.readInt();
+        accounts.cardKeys = new long[capacity];
+        accounts.cardStates = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            accounts.cardKeys[i] = in.readLong();
+            accounts.cardStates[i] = in.readInt();
+        }
+        accounts.accountCount = in.readInt();
+        capacity = in.readInt();
+        accounts.accountSlots = new int[capacity];
+        accounts.accountStates = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            accounts.accountSlots[i] = in.readInt();
+            accounts.accountStates[i] = in.readInt();
+        }
+        accounts.arenaSize = in.readInt();
+        accounts.arena = new byte[Math.max(accounts.arenaSize, 16 * 1024)];
+        in.readFully(accounts.arena, 0, accounts.arenaSize);
+        return accounts;
+    }
+
+    /**
+     * @return highest user index owning an account, -1 if there are no accounts
+     */
+    int maxOwner() {
+        int max = -1;
+        for (int state : cardStates) {
+            if (state != UNUSED) max = Math.max(max, owner(state));
+        }
+        for (int state : accountStates) {
+            if (state != UNUSED) max = Math.max(max, owner(state));
+        }
+        return max;
+    }
+
+    /**
+     * Moves every account to the new index of its owner, for state written with other user indexes.
+     *
+     * @param userIndexes new index of each old user index
+     */
+    void remapOwners(int[] userIndexes) {
+        remapOwners(cardStates, userIndexes);
+        remapOwners(accountStates, userIndexes);
+    }
+
+    private static void remapOwners(int[] states, int[] userIndexes) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == UNUSED) continue;
+            states[i] = merge(states[i], userIndexes[owner(states[i])], false);
+        }
+    }
+
+    /**
+     * @param state
+     * @return index of the user owning the account, -1 if it is UNUSED
+     */
+    static int owner(int state) {
+        return (state >>> 1) - 1;
+    }
+
+    /**
+     * @param state
+     * @return true if an approved deposit was made with the account
+     */
+    static boolean hasDeposit(int state) {
+        return (state & DEPOSIT_FLAG) != 0;
+    }
+
+    /**
+     * @param state     current state of the account
+     * @param userIndex user of the approved transaction
+     * @param deposit
+     * @return the state after the transaction
+     */
+    static int merge(int state, int userIndex, boolean deposit) {
+        return ((userIndex + 1) << 1) | (state & DEPOSIT_FLAG) | (deposit ? DEPOSIT_FLAG : 0);
+    }
+
+    /**
+     * @param account
+     * @return the digits as a number with the count of leading zeros in the top 4 bits, -1 if the account is not
+     * a card number that fits or has more than 7 leading zeros
+     */
+    static long packCard(CharSequence account) {
+        int length = account.length();
+        if (length == 0 || length > 18) return -1;
+
+        int leadingZeros = 0;
+        while (leadingZeros < length - 1 && account.charAt(leadingZeros) == '0') leadingZeros++;
+        //8 or more would reach the sign bit, such accounts go to the arena like IBANs
+        if (leadingZeros > 7) return -1;
+
+        long number = 0;
+        for (int i = 0; i < length; i++) {
+            int digit = account.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return -1;
+            number = number * 10 + digit;
+        }
+        //18 digits stay below 2^60
+        return ((long) leadingZeros << 60) | number;
+    }
+
+    /**
+     * @param card
+     * @param digits buffer for the card number
+     * @return length of the card number packCard was given, written to the buffer
+     */
+    static int unpackCard(long card, byte[] digits) {
+        int leadingZeros = (int) (card >>> 60);
+        long number = card & ((1L << 60) - 1);
+        //counted with integers, the log10 of a double rounds 999...9 up to the next power of ten
+        int length = leadingZeros + 1;
+        for (long rest = number / 10; rest > 0; rest /= 10) length++;
+        for (int i = length - 1; i >= leadingZeros; i--, number /= 10) digits[i] = (byte) ('0' + number % 10);
+        for (int i = 0; i < leadingZeros; i++) digits[i] = '0';
+        return length;
+    }
+
+    private static int findCard(long[] keys, int[] states, long card) {
+        int mask = keys.length - 1;
+        int slot = mix(card) & mask;
+        while (states[slot] != UNUSED && keys[slot] != card) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * @param account
+     * @return the account with one char per UTF-8 byte, so every method below can take a char as a byte; the account
+     * itself if it is ASCII, as IBANs are
+     */
+    private static CharSequence utf8(CharSequence account) {
+        for (int i = 0; i < account.length(); i++) {
+            if (account.charAt(i) >= 0x80) return new String(account.toString().getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+        }
+        return account;
+    }
+
+    private int findAccount(CharSequence account, int hash) {
+        int mask = accountSlots.length - 1;
+        int slot = hash & mask;
+        while (accountSlots[slot] != 0 && !matches(accountSlots[slot] - 1, account)) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * @return arena offset of the account, stored as a length byte followed by its UTF-8 bytes, see utf8
+     */
+    private int intern(CharSequence account) {
+        int length = account.length();
+        if (length > 255) throw new IllegalArgumentException("Account number too long: " + account);
+        if (arenaSize + length + 1 > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + length + 1));
+        }
+        int offset = arenaSize;
+        arena[arenaSize++] = (byte) length;
+        for (int i = 0; i < length; i++) {
+            arena[arenaSize++] = (byte) account.charAt(i);
+        }
+        return offset;
+    }
+
+    private boolean matches(int offset, CharSequence account) {
+        int length = account.length();
+        if ((arena[offset] & 0xff) != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (arena[offset + 1 + i] != (byte) account.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void growCards() {
+        long[] oldKeys = cardKeys;
+        int[] oldStates = cardStates;
+        cardKeys = new long[oldKeys.length * 2];
+        cardStates = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldStates[i] == UNUSED) continue;
+            int slot = findCard(cardKeys, cardStates, oldKeys[i]);
+            cardKeys[slot] = oldKeys[i];
+            cardStates[slot] = oldStates[i];
+        }
+    }
+
+    private void growAccounts() {
+        int[] oldSlots = accountSlots;
+        int[] oldStates = accountStates;
+        accountSlots = new int[oldSlots.length * 2];
+        accountStates = new int[oldSlots.length * 2];
+        int mask = accountSlots.length - 1;
+        for (int i = 0; i < oldSlots.length; i++) {
+            if (oldSlots[i] == 0) continue;
+            int slot = arenaHash(oldSlots[i] - 1) & mask;
+            while (accountSlots[slot] != 0) slot = (slot + 1) & mask;
+            accountSlots[slot] = oldSlots[i];
+            accountStates[slot] = oldStates[i];
+        }
+    }
+
+    private static int hash(CharSequence account) {
+        int hash = 0;
+        for (int i = 0; i < account.length(); i++) {
+            hash = hash * 31 + (byte) account.charAt(i);
+        }
+        return mix(hash);
+    }
+
+    private int arenaHash(int offset) {
+        int length = arena[offset] & 0xff;
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + arena[offset + 1 + i];
+        }
+        return mix(hash);
+    }
+
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+}
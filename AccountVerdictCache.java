@@ -0,0 +1,102 @@
+package com.playtech.assignment;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of what the payment method and country rules found out about an account: whether the IBAN checksum
+ * is valid or the card is a debit card, and the ISO2 country of the IBAN or of the card's bank. Accounts repeat a
+ * lot, so most transactions skip the mod 97 check and the BIN search.
+ * <p>
+ * The cache is direct-mapped: every account has one slot, chosen by its hash, and a new account replaces whatever
+ * is in its slot. Entries are immutable, so threads share the cache without locks; a race at worst loses an entry.
+ * Card verdicts depend on the BIN mappings, so every BinIndex has its own cache.
+ */
+final class AccountVerdictCache {
+    static final int DEFAULT_SIZE = 1 << 16;
+    //returned by get for accounts that are not cached
+    static final int MISSING = -1;
+
+    //a verdict is the packed country + 1 (0 for UNKNOWN) in the low 16 bits and these flags
+    private static final int VALID = 1 << 16;
+    private static final int CARD = 1 << 17;
+
+    private final Entry[] slots;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param size number of slots, rounded up to a power of two
+     */
+    AccountVerdictCache(int size) {
+        slots = new Entry[Integer.highestOneBit(Math.max(1, size - 1)) << 1];
+    }
+
+    /**
+     * @param account card number or IBAN
+     * @param card    true if the account is used as a card
+     * @return cached verdict, MISSING if there is none
+     */
+    int get(String account, boolean card) {
+        Entry entry = slots[slot(account)];
+        if (entry != null && ((entry.verdict & CARD) != 0) == card && entry.account.equals(account)) {
+            hits.increment();
+            return entry.verdict;
+        }
+        misses.increment();
+        return MISSING;
+    }
+
+    /**
+     * @param account card number or IBAN
+     * @param verdict result of verdict
+     */
+    void put(String account, int verdict) {
+        slots[slot(account)] = new Entry(account, verdict);
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @param valid   true if the IBAN checksum is valid or the card is a debit card
+     * @param card    true if the account is used as a card
+     * @param country packed ISO2 country of the account, CountryCodes.UNKNOWN if there is none
+     * @return the verdict packed into an int
+     */
+    static int verdict(boolean valid, boolean card, int country) {
+        return (valid ? VALID : 0) | (card ? CARD : 0) | (country + 1);
+    }
+
+    static boolean valid(int verdict) {
+        return (verdict & VALID) != 0;
+    }
+
+    /**
+     * @param verdict
+     * @return packed ISO2 country of the account, CountryCodes.UNKNOWN if there is none
+     */
+    static int country(int verdict) {
+        return (verdict & 0xffff) - 1;
+    }
+
+    private int slot(String account) {
+        int hash = account.hashCode();
+        return (hash ^ (hash >>> 16)) & (slots.length - 1);
+    }
+
+    private static final class Entry {
+        //final, so an entry read by another thread is always complete
+        final String account;
+        final int verdict;
+
+        Entry(String account, int verdict) {
+            this.account = account;
+            this.verdict = verdict;
+        }
+    }
+}
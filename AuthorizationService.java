@@ -0,0 +1,215 @@
+package com.playtech.assignment;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Resident service that authorizes transactions as they arrive, with users, BIN mappings and the account state kept
+ * in memory between requests.
+ * <p>
+ * Clients connect to a local TCP port or a Unix-domain socket and send rows in the format of transactions.csv, one
+ * per line; a header line is ignored. Each row is answered with a line in the format of events.csv, in the order the
+ * rows were sent, so a client can pipeline any number of rows before reading the answers. A row that cannot be parsed
+ * or checked is answered with "ERROR,message".
+ * <p>
+ * The rules are the ones of processTransactions and run on the connection's virtual thread; the stateful ones go
+ * through a Ledger, so requests of different users and accounts are applied in parallel. The time of every request, from reading it to buffering its
+ * answer, is reported as the REQUEST stage of the metrics, with its p50 and p99.
+ * <p>
+ * Usage: AuthorizationService users.csv bins.csv (--port=N | --socket=path) [--reference=file] [--load-state=file]
+ * [--save-state=file] [--metrics-interval=seconds]
+ */
+final class AuthorizationService {
+    private final UserRegistry users;
+    private final BinIndex binMappings;
+    private final Ledger ledger;
+    private final Metrics metrics;
+
+    /**
+     * @param users
+     * @param binMappings
+     * @param state   seen ids and account history, updated by every request
+     * @param metrics
+     */
+    AuthorizationService(UserRegistry users, BinIndex binMappings, ProcessingState state, Metrics metrics) {
+        this.users = users;
+        this.binMappings = binMappings;
+        this.ledger = new Ledger(state);
+        this.metrics = metrics;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SocketAddress address = null;
+        Path reference = null;
+        Path loadState = null;
+        Path saveState = null;
+        long metricsInterval = 10;
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--port=")) {
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[i].substring("--port=".length())));
+            } else if (args[i].startsWith("--socket=")) {
+                address = UnixDomainSocketAddress.of(args[i].substring("--socket=".length()));
+            } else if (args[i].startsWith("--reference=")) reference = Paths.get(args[i].substring("--reference=".length()));
+            else if (args[i].startsWith("--load-state=")) loadState = Paths.get(args[i].substring("--load-state=".length()));
+            else if (args[i].startsWith("--save-state=")) saveState = Paths.get(args[i].substring("--save-state=".length()));
+            else if (args[i].startsWith("--metrics-interval=")) metricsInterval = Long.parseLong(args[i].substring("--metrics-interval=".length()));
+            else throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
+        if (address == null) throw new IllegalArgumentException("Missing --port=N or --socket=path");
+
+        UserRegistry users;
+        BinIndex binMappings;
+        if (reference != null) {
+            ReferenceData referenceData = ReferenceData.open(Paths.get(args[0]), Paths.get(args[1]), reference);
+            users = referenceData.users;
+            binMappings = referenceData.binMappings;
+        } else {
+            users = TransactionProcessorSample.readUsers(Paths.get(args[0]));
+            binMappings = new BinIndex(TransactionProcessorSample.readBinMappings(Paths.get(args[1])));
+        }
+        ProcessingState state = loadState != null ? ProcessingState.load(loadState, users) : new ProcessingState();
+
+        Metrics metrics = new Metrics();
+        if (metricsInterval > 0) metrics.reportEvery(System.err, metricsInterval);
+        metrics.watch(binMappings.verdicts);
+        AuthorizationService service = new AuthorizationService(users, binMappings, state, metrics);
+
+        ServerSocketChannel server = address instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+        //stopping the JVM closes the socket, which ends serve
+        SocketAddress finalAddress = address;
+        Path finalSaveState = saveState;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                if (finalAddress instanceof UnixDomainSocketAddress socket) Files.deleteIfExists(socket.getPath());
+                if (finalSaveState != null) service.save(finalSaveState);
+            } catch (IOException e) {
+                System.err.println("Failed to save state: " + e.getMessage());
+            }
+            metrics.report(System.err, true);
+        }));
+        server.bind(address);
+        System.err.println("Authorizing transactions on " + address);
+        service.serve(server);
+    }
+
+    /**
+     * Accepts connections until the server is closed, every connection is handled on its own virtual thread.
+     *
+     * @param server bound server channel
+     * @throws IOException
+     */
+    void serve(ServerSocketChannel server) throws IOException {
+        try (ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (true) {
+                SocketChannel connection;
+                try {
+                    connection = server.accept();
+                } catch (ClosedChannelException e) {
+                    return;
+                }
+                connections.execute(() -> handle(connection));
+            }
+        }
+    }
+
+    /**
+     * Saves the state and the balances, so a restarted service continues where this one stopped.
+     *
+     * @param filePath
+     * @throws IOException
+     */
+    void save(Path filePath) throws IOException {
+        ledger.save(filePath, users);
+    }
+
+    private void handle(SocketChannel connection) {
+        //the stateless rules only, like the validation threads of the parallel mode
+        TransactionContext context = new TransactionContext(users, binMappings, null, null);
+        TransactionContext ledgerContext = new TransactionContext(users, binMappings, ledger);
+        try (connection;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(connection), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(connection), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                long start = metrics.now();
+                if (authorize(line, context, ledgerContext, out)) metrics.passed(Metrics.Stage.REQUEST, start);
+                //pipelined rows are answered together, the answers are sent once the client waits for them
+                if (!in.ready()) out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Connection closed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param line    row in the format of transactions.csv
+     * @param context context for the stateless rules of this connection
+     * @param ledgerContext context for the stateful rules of this connection
+     * @param out
+     * @return false if the line was not a transaction and got no answer
+     * @throws IOException
+     */
+    private boolean authorize(String line, TransactionContext context, TransactionContext ledgerContext, Writer out) throws IOException {
+        if (line.isBlank() || line.regionMatches(true, 0, "transaction_id,", 0, "transaction_id,".length())) return false;
+
+        Event event;
+        try {
+            long time = metrics.now();
+            Transaction transaction = parseTransaction(line);
+            metrics.passed(Metrics.Stage.PARSE, time);
+
+            context.reset(transaction);
+            Event declined = TransactionProcessorSample.validateTransaction(context, metrics);
+            ledgerContext.reset(transaction, context.user());
+            event = ledger.sequence(ledgerContext, declined, metrics);
+        } catch (RuntimeException e) {
+            //like a skipped row of the batch modes, the connection goes on with the next row
+            metrics.skipped();
+            //e.g. a NullPointerException has no message, its type is better than "null"
+            out.append("ERROR,").append(e.getMessage() != null ? e.getMessage() : e.getClass().getName()).append('\n');
+            return true;
+        }
+
+        out.append(event.transactionId).append(',').append(event.status).append(',');
+        event.appendMessage(out);
+        out.append('\n');
+        return true;
+    }
+
+    /**
+     * @param line row in the format of transactions.csv, without the line break
+     * @return Transaction built from the row
+     */
+    static Transaction parseTransaction(String line) {
+        String[] columns = line.strip().split(",", -1);
+        if (columns.length != 6) throw new IllegalArgumentException("Expected 6 columns, got " + columns.length);
+        return new Transaction(columns[0],       //transaction_id
+                columns[1],                      //user_id
+                columns[2],                      //type
+                Money.parse(columns[3]),         //amount
+                columns[4],                      //method
+                columns[5]);                     //account_number
+    }
+}
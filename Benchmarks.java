@@ -0,0 +1,458 @@
+package com.playtech.assignment;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Throughput and allocation benchmarks of the transaction processing hot paths, using only the JDK.
+ * <p>
+ * Every benchmark runs a few warmup iterations and then measured iterations of at least half a second each. For each
+ * one it prints a CSV row with the throughput (ops/s), the bytes allocated per op by the benchmark thread and the
+ * workers it starts (the same figure as JMH's gc.alloc.rate.norm) and the GC count and time, so runs can be diffed to
+ * catch regressions.
+ * <p>
+ * The ledger benchmarks double as a stress test of Ledger: they fail if any concurrent update was lost or an account
+ * ended up with more than one owner.
+ * <p>
+ * Usage: Benchmarks [--rows=10000,1000000,10000000] [--filter=name] [--dir=path]
+ */
+final class Benchmarks {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+    private static final long MIN_ITERATION_NANOS = 500_000_000L;
+    private static final int USERS = 1000;
+    //at least 4 threads, so the ledger stress test has contention even on small machines
+    private static final int LEDGER_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int LEDGER_OPS_PER_THREAD = 20_000;
+
+    //results end up here so the JIT cannot drop the benchmarked calls
+    private static volatile long sink;
+    //bytes allocated by the worker threads of the benchmarks so far, only written by the benchmark thread
+    private static long workerAllocated;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Body of a benchmark.
+     */
+    interface Body {
+        /**
+         * @return number of operations done
+         */
+        long run() throws IOException;
+    }
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        long[] rowCounts = {10_000, 1_000_000, 10_000_000};
+        String filter = "";
+        Path dir = null;
+        for (String arg : args) {
+            if (arg.startsWith("--rows=")) {
+                String[] sizes = arg.substring("--rows=".length()).split(",");
+                rowCounts = new long[sizes.length];
+                for (int i = 0; i < sizes.length; i++) rowCounts[i] = Long.parseLong(sizes[i]);
+            } else if (arg.startsWith("--filter=")) {
+                filter = arg.substring("--filter=".length());
+            } else if (arg.startsWith("--dir=")) {
+                dir = Path.of(arg.substring("--dir=".length()));
+            } else {
+                throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        System.out.println("benchmark,rows,ops_per_second,error_percent,alloc_bytes_per_op,gc_count,gc_millis");
+        for (long rows : rowCounts) {
+            Path data = dir != null ? Files.createDirectories(dir) : Files.createTempDirectory("benchmarks");
+            try {
+                run(data, (int) rows, filter);
+            } finally {
+                if (dir == null) deleteAll(data);
+            }
+        }
+    }
+
+    private static void run(Path data, int rows, String filter) throws IOException {
+        Path usersPath = data.resolve("users.csv");
+        Path transactionsPath = data.resolve("transactions.csv");
+        Path binMappingsPath = data.resolve("bins.csv");
+        Path eventsPath = data.resolve("events.csv");
+        Path balancesPath = data.resolve("balances.csv");
+
+        new DatasetGenerator(42, USERS, Math.min(rows, 100_000), new DatasetGenerator.Mix())
+                .write(usersPath, transactionsPath, binMappingsPath, rows);
+
+        BinIndex binMappings = new BinIndex(TransactionProcessorSample.readBinMappings(binMappingsPath));
+
+        if (matches("processTransactions", filter)) {
+            measure("processTransactions", rows, () -> {
+                UserRegistry users = TransactionProcessorSample.readUsers(usersPath);
+                TransactionProcessorSample.processTransactions(users, transactionsPath, binMappings, eventsPath);
+                TransactionProcessorSample.writeBalances(balancesPath, users);
+                return rows;
+            });
+        }
+        if (matches("readTransactions", filter)) {
+            measure("readTransactions", rows, () -> {
+                long count = 0;
+                try (CsvReader reader = new CsvReader(transactionsPath)) {
+                    reader.next();
+                    while (reader.next()) {
+                        sink += TransactionProcessorSample.parseTransaction(reader).getAmount().signum();
+                        count++;
+                    }
+                }
+                return count;
+            });
+        }
+        if (matches("readUsers", filter)) {
+            measure("readUsers", rows, () -> TransactionProcessorSample.readUsers(usersPath).size());
+        }
+        if (matches("readBinMappings", filter)) {
+            measure("readBinMappings", rows, () -> TransactionProcessorSample.readBinMappings(binMappingsPath).size());
+        }
+
+        //the ledger under contention: few users make every thread wait for the same stripes, many users spread them
+        for (int ledgerUsers : new int[]{1, 64, 4096}) {
+            for (int threads = 1; ; threads = Math.min(threads * 2, LEDGER_THREADS)) {
+                String name = "ledger/users=" + ledgerUsers + "/threads=" + threads;
+                int ledgerThreads = threads;
+                if (matches(name, filter)) measure(name, rows, () -> ledgerStress(ledgerUsers, 0, ledgerThreads));
+                if (threads == LEDGER_THREADS) break;
+            }
+        }
+        //users sharing a few accounts, so the ownership rule decides between threads
+        for (int ledgerAccounts : new int[]{1, 16}) {
+            String name = "ledger/users=64/accounts=" + ledgerAccounts + "/threads=" + LEDGER_THREADS;
+            if (matches(name, filter)) measure(name, rows, () -> ledgerStress(64, ledgerAccounts, LEDGER_THREADS));
+        }
+        String firstDeposit = "ledger/firstDeposit/threads=" + LEDGER_THREADS;
+        if (matches(firstDeposit, filter)) measure(firstDeposit, rows, () -> firstDepositRace(LEDGER_THREADS));
+
+        //the validators run over the transactions in memory, capped so 10M rows do not need gigabytes of heap
+        if (!matches("validatePaymentMethod", filter) && !matches("findBank", filter) && !matches("ibanMod97", filter)
+                && !matches("validateAmount", filter) && !matches("ISO3toISO2", filter)) return;
+
+        UserRegistry users = TransactionProcessorSample.readUsers(usersPath);
+        List<Transaction> transactions = new ArrayList<>();
+        try (CsvReader reader = new CsvReader(transactionsPath)) {
+            reader.next();
+            while (transactions.size() < 1_000_000 && reader.next()) {
+                transactions.add(TransactionProcessorSample.parseTransaction(reader));
+            }
+        }
+        Transaction[] rowsInMemory = transactions.toArray(new Transaction[0]);
+        User[] rowUsers = new User[rowsInMemory.length];
+        for (int i = 0; i < rowsInMemory.length; i++) {
+            rowUsers[i] = TransactionProcessorSample.findTransactionUser(rowsInMemory[i], users);
+        }
+        String[] countries = new String[binMappings.size()];
+        for (int i = 0; i < countries.length; i++) countries[i] = binMappings.get(i).getCountry();
+
+        if (matches("validatePaymentMethod", filter)) {
+            measure("validatePaymentMethod", rows, () -> {
+                for (Transaction transaction : rowsInMemory) {
+                    if (TransactionProcessorSample.validatePaymentMethod(transaction, binMappings)) sink++;
+                }
+                return rowsInMemory.length;
+            });
+        }
+        if (matches("findBank", filter)) {
+            measure("findBank", rows, () -> {
+                long count = 0;
+                for (Transaction transaction : rowsInMemory) {
+                    if (!transaction.getMethod().equals("CARD")) continue;
+                    sink += TransactionProcessorSample.findBank(transaction, binMappings).getCountryCode();
+                    count++;
+                }
+                return count;
+            });
+        }
+        if (matches("ibanMod97", filter)) {
+            measure("ibanMod97", rows, () -> {
+                long count = 0;
+                for (Transaction transaction : rowsInMemory) {
+                    if (!transaction.getMethod().equals("TRANSFER")) continue;
+                    sink += IbanValidator.mod97(transaction.getAccount_number());
+                    count++;
+                }
+                return count;
+            });
+        }
+        if (matches("validateAmount", filter)) {
+            measure("validateAmount", rows, () -> {
+                for (int i = 0; i < rowsInMemory.length; i++) {
+                    sink += TransactionProcessorSample.validateAmount(rowsInMemory[i], rowUsers[i]).ordinal();
+                }
+                return rowsInMemory.length;
+            });
+        }
+        if (matches("ISO3toISO2", filter)) {
+            measure("ISO3toISO2", rows, () -> {
+                for (String country : countries) {
+                    sink += TransactionProcessorSample.ISO3toISO2(country).length();
+                }
+                return countries.length;
+            });
+        }
+    }
+
+    /**
+     * Applies random deposits and withdrawals from several threads through one Ledger, then checks every balance
+     * against the transactions that were approved, and every account against the users it approved.
+     *
+     * @param userCount
+     * @param accountCount accounts shared by all users, 0 to give every user an account of its own
+     * @param threads
+     * @return number of transactions applied
+     * @throws IllegalStateException if an update was lost, a balance went negative or an account has two owners
+     */
+    private static long ledgerStress(int userCount, int accountCount, int threads) {
+        User[] byIndex = users(userCount);
+        UserRegistry users = registry(byIndex);
+        Ledger ledger = new Ledger(new ProcessingState());
+        int accounts = accountCount > 0 ? accountCount : userCount;
+
+        //net approved cents per thread and user, and the user each thread saw approved per account, -1 for none
+        long[][] approvedCents = new long[threads][userCount];
+        int[][] owners = new int[threads][accounts];
+        for (int[] thread : owners) Arrays.fill(thread, -1);
+        runWorkers(threads, thread -> {
+            TransactionContext context = new TransactionContext(users, null, ledger);
+            SplittableRandom random = new SplittableRandom(thread);
+            for (int i = 0; i < LEDGER_OPS_PER_THREAD; i++) {
+                int u = random.nextInt(userCount);
+                int a = accountCount > 0 ? random.nextInt(accountCount) : u;
+                //two deposits per withdrawal, so withdrawals both pass and fail
+                boolean deposit = random.nextInt(3) > 0;
+                long cents = 1 + random.nextInt(10_000);
+                context.reset(new Transaction(thread + "-" + i, byIndex[u].getId(), deposit ? "DEPOSIT" : "WITHDRAW",
+                        Money.ofCents(cents), "TRANSFER", "ACCOUNT" + a), byIndex[u]);
+                if (ledger.sequence(context, null, Metrics.DISABLED).reason == Event.Reason.OK) {
+                    approvedCents[thread][u] += deposit ? cents : -cents;
+                    if (owners[thread][a] != -1 && owners[thread][a] != u) {
+                        throw new IllegalStateException("Account " + a + " approved for users " + owners[thread][a] + " and " + u);
+                    }
+                    owners[thread][a] = u;
+                }
+            }
+        });
+
+        for (int u = 0; u < userCount; u++) {
+            long expected = 0;
+            for (long[] thread : approvedCents) expected += thread[u];
+            long balance = byIndex[u].getBalance().getCents();
+            if (balance != expected || balance < 0) {
+                throw new IllegalStateException("User " + u + " has balance " + balance + ", approved transactions sum to " + expected);
+            }
+        }
+        for (int a = 0; a < accounts; a++) {
+            int owner = -1;
+            for (int[] thread : owners) {
+                if (thread[a] == -1) continue;
+                if (owner != -1 && owner != thread[a]) {
+                    throw new IllegalStateException("Account " + a + " approved for users " + owner + " and " + thread[a]);
+                }
+                owner = thread[a];
+            }
+            requireOwner(ledger, "ACCOUNT" + a, owner);
+        }
+        return (long) threads * LEDGER_OPS_PER_THREAD;
+    }
+
+    /**
+     * Makes every thread, each with a user of its own, deposit into the same new accounts in the same order, so the
+     * threads race for the first deposit of each account.
+     *
+     * @param threads
+     * @return number of transactions applied
+     * @throws IllegalStateException if an account was approved for no user or for more than one, or an update was lost
+     */
+    private static long firstDepositRace(int threads) {
+        User[] byIndex = users(threads);
+        UserRegistry users = registry(byIndex);
+        Ledger ledger = new Ledger(new ProcessingState());
+
+        boolean[][] won = new boolean[threads][LEDGER_OPS_PER_THREAD];
+        runWorkers(threads, thread -> {
+            TransactionContext context = new TransactionContext(users, null, ledger);
+            for (int i = 0; i < LEDGER_OPS_PER_THREAD; i++) {
+                context.reset(new Transaction(thread + "-" + i, byIndex[thread].getId(), "DEPOSIT",
+                        Money.ofCents(1), "TRANSFER", "ACCOUNT" + i), byIndex[thread]);
+                won[thread][i] = ledger.sequence(context, null, Metrics.DISABLED).reason == Event.Reason.OK;
+            }
+        });
+
+        long[] wins = new long[threads];
+        for (int i = 0; i < LEDGER_OPS_PER_THREAD; i++) {
+            int owner = -1;
+            for (int t = 0; t < threads; t++) {
+                if (!won[t][i]) continue;
+                if (owner != -1) throw new IllegalStateException("Account " + i + " approved for users " + owner + " and " + t);
+                owner = t;
+                wins[t]++;
+            }
+            if (owner == -1) throw new IllegalStateException("Account " + i + " approved for nobody");
+            requireOwner(ledger, "ACCOUNT" + i, owner);
+        }
+        for (int t = 0; t < threads; t++) {
+            long balance = byIndex[t].getBalance().getCents();
+            if (balance != wins[t]) {
+                throw new IllegalStateException("User " + t + " has balance " + balance + ", approved transactions sum to " + wins[t]);
+            }
+        }
+        return (long) threads * LEDGER_OPS_PER_THREAD;
+    }
+
+    /**
+     * Receives the number of a worker thread, see runWorkers.
+     */
+    interface Worker {
+        void run(int thread);
+    }
+
+    /**
+     * Runs the worker on several threads and waits for all of them, adding what they allocate to workerAllocated.
+     *
+     * @param threads
+     * @param worker
+     * @throws IllegalStateException if a worker failed, with its exception as the cause
+     */
+    private static void runWorkers(int threads, Worker worker) {
+        long[] allocated = new long[threads];
+        RuntimeException[] failures = new RuntimeException[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers[t] = new Thread(() -> {
+                //a finished thread no longer reports its allocation, so it is read before the end
+                long start = THREADS.getCurrentThreadAllocatedBytes();
+                try {
+                    worker.run(thread);
+                } catch (RuntimeException e) {
+                    failures[thread] = e;
+                }
+                allocated[thread] = THREADS.getCurrentThreadAllocatedBytes() - start;
+            });
+            workers[t].start();
+        }
+        for (Thread thread : workers) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+        for (long bytes : allocated) workerAllocated += bytes;
+        for (RuntimeException failure : failures) {
+            if (failure != null) throw new IllegalStateException("Worker failed", failure);
+        }
+    }
+
+    private static User[] users(int count) {
+        User[] byIndex = new User[count];
+        for (int u = 0; u < count; u++) {
+            byIndex[u] = new User("u" + u, "user" + u, Money.ofCents(0), "EST", false,
+                    Money.ofCents(1), Money.ofCents(1_000_000), Money.ofCents(1), Money.ofCents(1_000_000));
+        }
+        return byIndex;
+    }
+
+    private static UserRegistry registry(User[] byIndex) {
+        UserRegistry users = new UserRegistry(byIndex.length);
+        for (User user : byIndex) users.add(user);
+        return users;
+    }
+
+    /**
+     * @param ledger  ledger after all its workers finished
+     * @param account
+     * @param owner   index of the user the account was approved for, -1 if it never was
+     * @throws IllegalStateException if the ledger records another owner
+     */
+    private static void requireOwner(Ledger ledger, String account, int owner) {
+        int recorded = AccountRegistry.owner(ledger.accountState(account));
+        if (recorded != owner) {
+            throw new IllegalStateException("Account " + account + " is owned by user " + recorded + ", approved for " + owner);
+        }
+    }
+
+    /**
+     * Runs the benchmark and prints its result row.
+     *
+     * @param name
+     * @param rows size of the input the benchmark was run with
+     * @param body
+     * @throws IOException
+     */
+    static void measure(String name, int rows, Body body) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) iteration(body);
+
+        double[] throughput = new double[MEASURED_ITERATIONS];
+        long ops = 0;
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() + workerAllocated;
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            long iterationOps = iteration(body);
+            throughput[i] = iterationOps / ((System.nanoTime() - start) / 1e9);
+            ops += iterationOps;
+        }
+        allocated = THREADS.getCurrentThreadAllocatedBytes() + workerAllocated - allocated;
+
+        double mean = 0;
+        for (double value : throughput) mean += value / MEASURED_ITERATIONS;
+        double variance = 0;
+        for (double value : throughput) variance += (value - mean) * (value - mean) / (MEASURED_ITERATIONS - 1);
+
+        System.out.printf("%s,%d,%.0f,%.1f,%.1f,%d,%d%n", name, rows, mean, 100 * Math.sqrt(variance) / mean,
+                (double) allocated / Math.max(1, ops), gcCount() - gcCount, gcMillis() - gcMillis);
+    }
+
+    /**
+     * @return operations done by running the body until at least MIN_ITERATION_NANOS have passed
+     */
+    private static long iteration(Body body) throws IOException {
+        long ops = 0;
+        long start = System.nanoTime();
+        do {
+            ops += body.run();
+        } while (System.nanoTime() - start < MIN_ITERATION_NANOS);
+        return ops;
+    }
+
+    private static boolean matches(String name, String filter) {
+        return filter.isEmpty() || name.contains(filter);
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += gc.getCollectionCount();
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) millis += gc.getCollectionTime();
+        return millis;
+    }
+
+    private static void deleteAll(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,207 @@
+package com.playtech.assignment;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntFunction;
+
+/**
+ * BIN ranges sorted by range_from in primitive arrays, built once at load time.
+ * A lookup is a binary search over the bounds and does not allocate.
+ * <p>
+ * Overlapping ranges are flattened into disjoint segments when the index is built, the earlier row of the file
+ * winning where ranges overlap. A card is in at most one segment, and the search finds the same bank as scanning the
+ * ranges in file order would.
+ * <p>
+ * When loaded from a compiled reference file only the bounds are read up front, the BinMapping of a range is
+ * created the first time a card falls into it.
+ */
+class BinIndex {
+    /**
+     * Returned for every card that is not in any range
+     */
+    static final BinMapping NONE = new BinMapping("none", 0, 0, "none", "none");
+
+    static final int PREFIX_LENGTH = 10;
+
+    private final long[] rangeFrom;
+    private final long[] rangeTo;
+    private final BinMapping[] mappings;
+    //creates missing mappings, null if all of them are present
+    private final IntFunction<BinMapping> loader;
+
+    /**
+     * Verdicts of the accounts checked against these ranges
+     */
+    final AccountVerdictCache verdicts = new AccountVerdictCache(AccountVerdictCache.DEFAULT_SIZE);
+
+    /**
+     * @param binMappings ranges in file order, an earlier one wins where ranges overlap
+     */
+    BinIndex(List<BinMapping> binMappings) {
+        //file order is the priority, a lower index wins
+        BinMapping[] rows = binMappings.toArray(new BinMapping[0]);
+        Integer[] byStart = new Integer[rows.length];
+        for (int i = 0; i < rows.length; i++) byStart[i] = i;
+        Arrays.sort(byStart, Comparator.comparingLong(i -> rows[i].getRange_from()));
+
+        long[] from = new long[rows.length];
+        long[] to = new long[rows.length];
+        BinMapping[] segments = new BinMapping[rows.length];
+        int size = 0;
+        PriorityQueue<Integer> active = new PriorityQueue<>();
+        int next = 0;
+        long position = 0;
+        while (next < rows.length || !active.isEmpty()) {
+            if (active.isEmpty()) position = rows[byStart[next]].getRange_from();
+            while (next < rows.length && rows[byStart[next]].getRange_from() <= position) {
+                //a range that ends before it starts holds no card
+                if (rows[byStart[next]].getRange_to() >= position) active.add(byStart[next]);
+                next++;
+            }
+            //ranges that ended are only dropped once they are the winner
+            while (!active.isEmpty() && rows[active.peek()].getRange_to() < position) active.poll();
+            if (active.isEmpty()) continue;
+
+            //the winner holds until it ends or a range that may win over it starts
+            BinMapping winner = rows[active.peek()];
+            long end = winner.getRange_to();
+            if (next < rows.length) end = Math.min(end, rows[byStart[next]].getRange_from() - 1);
+            if (size > 0 && segments[size - 1] == winner && to[size - 1] + 1 == position) {
+                to[size - 1] = end;
+            } else {
+                if (size == segments.length) {
+                    from = Arrays.copyOf(from, size * 2);
+                    to = Arrays.copyOf(to, size * 2);
+                    segments = Arrays.copyOf(segments, size * 2);
+                }
+                from[size] = position;
+                to[size] = end;
+                segments[size] = winner;
+                size++;
+            }
+            if (end == Long.MAX_VALUE) break;
+            position = end + 1;
+        }
+        rangeFrom = Arrays.copyOf(from, size);
+        rangeTo = Arrays.copyOf(to, size);
+        mappings = Arrays.copyOf(segments, size);
+        loader = null;
+    }
+
+    /**
+     * @param rangeFrom sorted segment starts, as rangeFrom of an index built from a list
+     * @param rangeTo   segment ends in the same order
+     * @param loader    creates the mapping of a segment index when it is first needed
+     * @throws IllegalArgumentException if two segments overlap, which a compiled reference file never has
+     */
+    BinIndex(long[] rangeFrom, long[] rangeTo, IntFunction<BinMapping> loader) {
+        int overlap = firstOverlap(rangeFrom, rangeTo);
+        if (overlap >= 0) {
+            throw new IllegalArgumentException("BIN range " + rangeFrom[overlap] + "-" + rangeTo[overlap] + " overlaps an earlier range");
+        }
+        this.rangeFrom = rangeFrom;
+        this.rangeTo = rangeTo;
+        this.mappings = new BinMapping[rangeFrom.length];
+        this.loader = loader;
+    }
+
+    /**
+     * @param cardNumber
+     * @return bank of the card, NONE if the card is not in any range
+     */
+    BinMapping find(CharSequence cardNumber) {
+        int i = indexOf(cardPrefix(cardNumber));
+        return i < 0 ? NONE : get(i);
+    }
+
+    /**
+     * @param prefix first 10 digits of the card
+     * @return index of the range holding the prefix, -1 if there is none
+     */
+    int indexOf(long prefix) {
+        if (prefix < 0) return -1;
+
+        //last range starting at or before the prefix
+        int low = 0;
+        int high = rangeFrom.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (rangeFrom[mid] <= prefix) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found >= 0 && rangeTo[found] >= prefix ? found : -1;
+    }
+
+    /**
+     * @param i index returned by indexOf
+     * @return mapping at that index
+     */
+    BinMapping get(int i) {
+        BinMapping mapping = mappings[i];
+        if (mapping == null) {
+            //two threads may both create it, they get equal immutable mappings
+            mapping = loader.apply(i);
+            mappings[i] = mapping;
+        }
+        return mapping;
+    }
+
+    /**
+     * @return number of disjoint segments, a range split by an earlier one counts once per part
+     */
+    int size() {
+        return mappings.length;
+    }
+
+    /**
+     * @param i index of a segment
+     * @return first prefix of the segment, which may start after the range_from of its mapping
+     */
+    long rangeFrom(int i) {
+        return rangeFrom[i];
+    }
+
+    /**
+     * @param i index of a segment
+     * @return last prefix of the segment, which may end before the range_to of its mapping
+     */
+    long rangeTo(int i) {
+        return rangeTo[i];
+    }
+
+    /**
+     * @param rangeFrom sorted range starts
+     * @param rangeTo   range ends in the same order
+     * @return index of the first range that starts before an earlier range ends, -1 if no ranges overlap
+     */
+    static int firstOverlap(long[] rangeFrom, long[] rangeTo) {
+        long furthestEnd = Long.MIN_VALUE;
+        for (int i = 0; i < rangeFrom.length; i++) {
+            if (rangeFrom[i] <= furthestEnd) return i;
+            furthestEnd = Math.max(furthestEnd, rangeTo[i]);
+        }
+        return -1;
+    }
+
+    /**
+     * @param cardNumber
+     * @return first 10 digits of the card as a number, -1 if the card is too short or not numeric
+     */
+    static long cardPrefix(CharSequence cardNumber) {
+        if (cardNumber.length() < PREFIX_LENGTH) return -1;
+        long prefix = 0;
+        for (int i = 0; i < PREFIX_LENGTH; i++) {
+            char c = cardNumber.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            prefix = prefix * 10 + (c - '0');
+        }
+        return prefix;
+    }
+}
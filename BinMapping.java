@@ -0,0 +1,53 @@
+package com.playtech.assignment;
+
+class BinMapping {
+    public String getName() {
+        return name;
+    }
+
+    public long getRange_from() {
+        return range_from;
+    }
+
+    public long getRange_to() {
+        return range_to;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    /**
+     * @return country normalized to a packed ISO2 code at load time, see CountryCodes
+     */
+    public int getCountryCode() {
+        return countryCode;
+    }
+
+    private final String name;
+    private final long range_from;
+    private final long range_to;
+    private final String type;
+    private final String country;
+    private final int countryCode;
+
+    public BinMapping(String name, long range_from, long range_to, String type, String country) {
+        this(name, range_from, range_to, type, country, CountryCodes.iso3ToIso2Code(country));
+    }
+
+    /**
+     * @param countryCode country already resolved to a packed ISO2 code, see CountryCodes
+     */
+    BinMapping(String name, long range_from, long range_to, String type, String country, int countryCode) {
+        this.name = name;
+        this.range_from = range_from;
+        this.range_to = range_to;
+        this.type = type;
+        this.country = country;
+        this.countryCode = countryCode;
+    }
+}
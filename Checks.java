@@ -0,0 +1,587 @@
+package com.playtech.assignment;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Correctness checks of the components whose edge cases the sample data does not reach, using only the JDK.
+ * <p>
+ * Every check prints one CSV row with its name and either ok or the reason it failed; the exit status is 1 if any
+ * check failed, so the checks can run in a build script.
+ * <p>
+ * Usage: Checks [--filter=name] [--test-data=path]
+ */
+final class Checks {
+    /**
+     * Body of a check, fails by throwing.
+     */
+    interface Check {
+        void run() throws Exception;
+    }
+
+    private static int failures;
+
+    private Checks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = "";
+        Path testData = Path.of("test-data");
+        for (String arg : args) {
+            if (arg.startsWith("--filter=")) filter = arg.substring("--filter=".length());
+            else if (arg.startsWith("--test-data=")) testData = Path.of(arg.substring("--test-data=".length()));
+            else throw new IllegalArgumentException("Unknown option " + arg);
+        }
+
+        Path samples = testData;
+        System.out.println("check,result");
+        check("binIndex/disjoint", filter, Checks::binIndexDisjoint);
+        check("binIndex/overlap", filter, Checks::binIndexOverlap);
+        check("iban/testData", filter, () -> ibanTestData(samples));
+        check("iban/countryLengths", filter, Checks::ibanCountryLengths);
+        check("iban/malformed", filter, Checks::ibanMalformed);
+        check("money/parse", filter, Checks::moneyParse);
+        check("money/malformed", filter, Checks::moneyMalformed);
+        check("csv/tooManyColumns", filter, Checks::csvTooManyColumns);
+        check("accounts/cardRoundTrip", filter, Checks::accountsCardRoundTrip);
+        check("accounts/nonAscii", filter, Checks::accountsNonAscii);
+        check("rules/unknownTypeAndMethod", filter, Checks::rulesUnknownTypeAndMethod);
+        check("state/chainedLoad", filter, Checks::stateChainedLoad);
+        check("ledger/save", filter, Checks::ledgerSave);
+        if (failures > 0) System.exit(1);
+    }
+
+    /**
+     * Lookups in random disjoint ranges find the same bank as scanning the ranges in file order.
+     */
+    private static void binIndexDisjoint() {
+        SplittableRandom random = new SplittableRandom(4);
+        List<BinMapping> mappings = new ArrayList<>();
+        long next = 0;
+        for (int i = 0; i < 1000; i++) {
+            //gaps and adjacent ranges both occur
+            long from = next + random.nextInt(3) * random.nextLong(1_000_000);
+            long to = from + random.nextLong(1_000_000);
+            mappings.add(new BinMapping("BANK " + i, from, to, "DC", "EST"));
+            next = to + 1;
+        }
+        //the index must not depend on the file order
+        List<BinMapping> shuffled = new ArrayList<>(mappings);
+        for (int i = shuffled.size() - 1; i > 0; i--) shuffled.set(i, shuffled.set(random.nextInt(i + 1), shuffled.get(i)));
+        BinIndex index = new BinIndex(shuffled);
+
+        for (int i = 0; i < 100_000; i++) {
+            long prefix = random.nextLong(next + 1_000_000);
+            BinMapping expected = BinIndex.NONE;
+            for (BinMapping mapping : shuffled) {
+                if (mapping.getRange_from() <= prefix && mapping.getRange_to() >= prefix) {
+                    expected = mapping;
+                    break;
+                }
+            }
+            int found = index.indexOf(prefix);
+            BinMapping actual = found < 0 ? BinIndex.NONE : index.get(found);
+            require(actual == expected, "prefix " + prefix + " found " + actual.getName() + ", expected " + expected.getName());
+        }
+    }
+
+    /**
+     * Nested, overlapping and touching ranges resolve to the earlier row of the file, also from a compiled reference file.
+     */
+    private static void binIndexOverlap() throws IOException {
+        BinMapping outer = new BinMapping("OUTER", 100, 200, "DC", "EST");
+        BinMapping inner = new BinMapping("INNER", 150, 160, "DC", "EST");
+        requireBanks(List.of(outer, inner), "OUTER", 100, 200);
+        requireBanks(List.of(inner, outer), "OUTER", 100, 149, "INNER", 150, 160, "OUTER", 161, 200);
+        requireBanks(List.of(outer, new BinMapping("OVERLAPPING", 190, 300, "DC", "EST")), "OUTER", 100, 200, "OVERLAPPING", 201, 300);
+        requireBanks(List.of(new BinMapping("OVERLAPPING", 190, 300, "DC", "EST"), outer), "OUTER", 100, 189, "OVERLAPPING", 190, 300);
+        requireBanks(List.of(outer, new BinMapping("TOUCHING", 200, 300, "DC", "EST")), "OUTER", 100, 200, "TOUCHING", 201, 300);
+        requireBanks(List.of(outer, new BinMapping("SAME", 100, 200, "DC", "EST")), "OUTER", 100, 200);
+        requireBanks(List.of(outer, new BinMapping("ADJACENT", 201, 300, "DC", "EST")), "OUTER", 100, 200, "ADJACENT", 201, 300);
+
+        //random overlapping ranges find the first row holding the prefix
+        SplittableRandom random = new SplittableRandom(5);
+        List<BinMapping> mappings = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            long from = random.nextLong(10_000);
+            mappings.add(new BinMapping("BANK " + i, from, from + random.nextLong(random.nextBoolean() ? 50 : 2_000), "DC", "EST"));
+        }
+        BinIndex index = new BinIndex(mappings);
+        for (long prefix = 0; prefix < 13_000; prefix++) {
+            String expected = "none";
+            for (BinMapping mapping : mappings) {
+                if (mapping.getRange_from() <= prefix && mapping.getRange_to() >= prefix) {
+                    expected = mapping.getName();
+                    break;
+                }
+            }
+            int found = index.indexOf(prefix);
+            String actual = found < 0 ? "none" : index.get(found).getName();
+            require(actual.equals(expected), "prefix " + prefix + " found " + actual + ", expected " + expected);
+        }
+
+        //the compiled reference file keeps the flattened segments
+        Path directory = Files.createTempDirectory("checks");
+        try {
+            Path users = write(directory, "users.csv", "USER_ID,USERNAME,BALANCE,COUNTRY,FROZEN,DEPOSIT_MIN,DEPOSIT_MAX,WITHDRAW_MIN,WITHDRAW_MAX\n");
+            Path bins = write(directory, "bins.csv", "name,range_from,range_to,type,country\n"
+                    + "INNER,150,160,CC,LVA\n" + "OUTER,100,200,DC,EST\n");
+            BinIndex compiled = ReferenceData.open(users, bins, directory.resolve("reference.bin")).binMappings;
+            requireBanks(compiled, "OUTER", 100, 149, "INNER", 150, 160, "OUTER", 161, 200);
+            require(compiled.get(compiled.indexOf(155)).getType().equals("CC"), "type of the inner range");
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void requireBanks(List<BinMapping> mappings, Object... segments) {
+        requireBanks(new BinIndex(mappings), segments);
+    }
+
+    /**
+     * @param segments name, first and last prefix of every bank in prefix order, no bank outside of them
+     */
+    private static void requireBanks(BinIndex index, Object... segments) {
+        long first = (Integer) segments[1];
+        long last = (Integer) segments[segments.length - 1];
+        require(index.indexOf(first - 1) < 0 && index.indexOf(last + 1) < 0, "prefixes outside the ranges have a bank");
+        for (int s = 0; s < segments.length; s += 3) {
+            for (long prefix = (Integer) segments[s + 1]; prefix <= (Integer) segments[s + 2]; prefix++) {
+                int found = index.indexOf(prefix);
+                String actual = found < 0 ? "none" : index.get(found).getName();
+                require(actual.equals(segments[s]), "prefix " + prefix + " found " + actual + ", expected " + segments[s]);
+            }
+        }
+    }
+
+    /**
+     * The IBANs of the sample transactions get the verdict of the sample outputs: the rows the outputs approve have a
+     * valid IBAN, the ones they decline with Invalid iban do not. Rows declined by an earlier rule say nothing about it.
+     *
+     * @param testData directory with one directory per sample, each with input and output example
+     */
+    private static void ibanTestData(Path testData) throws IOException {
+        int checked = 0;
+        try (var samples = Files.list(testData)) {
+            for (Path sample : (Iterable<Path>) samples::iterator) {
+                try (CsvReader transactions = new CsvReader(sample.resolve("input").resolve("transactions.csv"));
+                     CsvReader events = new CsvReader(sample.resolve("output example").resolve("events.csv"))) {
+                    //events are in the order of the transactions, first rows are the headers
+                    transactions.next();
+                    events.next();
+                    while (transactions.next() && events.next()) {
+                        if (!transactions.equals(4, "TRANSFER")) continue;
+                        String iban = transactions.string(5);
+                        String message = events.string(2);
+                        if (message.equals("OK")) {
+                            require(IbanValidator.isValid(iban), sample.getFileName() + ": approved IBAN " + iban + " is invalid");
+                        } else if (message.startsWith("Invalid iban")) {
+                            require(!IbanValidator.isValid(iban), sample.getFileName() + ": declined IBAN " + iban + " is valid");
+                        } else {
+                            continue;
+                        }
+                        checked++;
+                    }
+                }
+            }
+        }
+        require(checked > 0, "no sample IBANs in " + testData);
+    }
+
+    /**
+     * An IBAN with valid check digits is valid at its country's length and invalid one character shorter or longer;
+     * countries missing from the table accept any length from 15 to 34.
+     */
+    private static void ibanCountryLengths() {
+        SplittableRandom random = new SplittableRandom(5);
+        int listed = 0;
+        for (char first = 'A'; first <= 'Z'; first++) {
+            for (char second = 'A'; second <= 'Z'; second++) {
+                int length = IbanValidator.countryLength(first, second);
+                if (length == 0) {
+                    for (int other = 15; other <= 34; other++) {
+                        String iban = iban(first, second, other, random);
+                        require(IbanValidator.isValid(iban), "unlisted country, " + iban + " is invalid");
+                    }
+                    continue;
+                }
+                listed++;
+                String iban = iban(first, second, length, random);
+                require(IbanValidator.isValid(iban), iban + " is invalid");
+                String shorter = iban(first, second, length - 1, random);
+                require(!IbanValidator.isValid(shorter), shorter + " is one character short but valid");
+                String longer = iban(first, second, length + 1, random);
+                require(!IbanValidator.isValid(longer), longer + " is one character long but valid");
+            }
+        }
+        require(listed > 100, "only " + listed + " countries have a length");
+        require(IbanValidator.countryLength('G', 'B') == 22 && IbanValidator.countryLength('N', 'O') == 15
+                && IbanValidator.countryLength('R', 'U') == 33, "registry lengths of GB, NO and RU");
+    }
+
+    /**
+     * Wrong check digits, lower case, other characters and bad lengths are invalid.
+     */
+    private static void ibanMalformed() {
+        //examples of the IBAN registry
+        require(IbanValidator.isValid("GB82WEST12345698765432"), "GB82WEST12345698765432 is valid");
+        require(IbanValidator.isValid("DE89370400440532013000"), "DE89370400440532013000 is valid");
+        require(IbanValidator.isValid("NO9386011117947"), "NO9386011117947 is valid");
+
+        require(!IbanValidator.isValid("GB83WEST12345698765432"), "wrong check digits");
+        require(!IbanValidator.isValid("GB82WEST12345698765423"), "swapped digits");
+        require(!IbanValidator.isValid("GB82WEST1234569876543"), "one digit missing");
+        require(!IbanValidator.isValid("gb82west12345698765432"), "lower case");
+        require(!IbanValidator.isValid("GB82west12345698765432"), "lower case bank code");
+        require(!IbanValidator.isValid("GB82 WEST 1234 5698 7654 32"), "print format with spaces");
+        require(!IbanValidator.isValid("GB82WEST1234569876543-"), "punctuation");
+        require(!IbanValidator.isValid("GBXXWEST12345698765432"), "letters as check digits");
+        require(!IbanValidator.isValid("1282WEST12345698765432"), "digits as country");
+        require(!IbanValidator.isValid(""), "empty");
+        require(!IbanValidator.isValid("NO938601111794"), "under the shortest IBAN");
+        require(!IbanValidator.isValid(iban('U', 'S', 35, new SplittableRandom(1))), "over the longest IBAN");
+    }
+
+    /**
+     * Amounts parse to the same value as BigDecimal, also around the largest long of cents and of units.
+     */
+    private static void moneyParse() {
+        String[] amounts = {"0", "0.00", "1", "1.5", "-1.05", "+2.50", "00012.30", "92233720368547758.07",
+                "92233720368547758.08", "-92233720368547758.08", "-92233720368547758.09", "922337203685477580.70",
+                "9223372036854775807", "9223372036854775807.99", "9223372036854775808", "9223372036854775808.00",
+                "9223372036854775809.01", "-9223372036854775808.00", "12345678901234567890.12",
+                "99999999999999999999999999.99"};
+        for (String amount : amounts) {
+            Money money = Money.parse(amount);
+            BigDecimal expected = new BigDecimal(amount).setScale(2);
+            require(money.toBigDecimal().compareTo(expected) == 0, amount + " parsed as " + money);
+            require(money.toString().equals(expected.toPlainString()), amount + " printed as " + money);
+            require(money.isCents() == (expected.movePointRight(2).unscaledValue().bitLength() < 64),
+                    amount + " is kept as " + (money.isCents() ? "cents" : "BigDecimal"));
+        }
+        require(Money.parse("x9.99y", 1, 5).getCents() == 999, "parse of a part of the text");
+    }
+
+    /**
+     * Anything but digits with at most two decimals is rejected with a NumberFormatException, however long.
+     */
+    private static void moneyMalformed() {
+        String[] amounts = {"", "-", ".", "1.", ".50", "1.234", "1,00", "1e3", "1E3", "10000000000000000000E3",
+                "99999999999999999999.999", "99999999999999999999.9.9", "99999999999999999999x", "--1", "1-",
+                " 1", "1 ", "0x10", "NaN", "Infinity"};
+        for (String amount : amounts) {
+            try {
+                Money money = Money.parse(amount);
+                throw new IllegalStateException("\"" + amount + "\" parsed as " + money);
+            } catch (NumberFormatException expected) {
+                //rejected like it should be
+            }
+        }
+    }
+
+    /**
+     * A row with too many columns does not stop the reader, only reading its columns fails.
+     */
+    private static void csvTooManyColumns() throws IOException {
+        String rows = "a,b\n" + "x,".repeat(40) + "x\r\nc,d";
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(rows.getBytes(StandardCharsets.UTF_8)))) {
+            require(reader.next() && reader.string(1).equals("b"), "first row");
+            require(reader.next(), "the row with too many columns is returned");
+            try {
+                reader.string(0);
+                throw new IllegalStateException("a column of the row with too many columns was read");
+            } catch (IllegalArgumentException expected) {
+                require(expected.getMessage().startsWith("Too many columns"), "message " + expected.getMessage());
+            }
+            require(reader.next() && reader.string(0).equals("c") && reader.string(1).equals("d"), "row after it");
+            require(!reader.next(), "end of the input");
+        }
+    }
+
+    /**
+     * Card numbers of 1 to 18 digits, with and without leading zeros, come back from packCard as they went in.
+     */
+    private static void accountsCardRoundTrip() {
+        SplittableRandom random = new SplittableRandom(9);
+        List<String> cards = new ArrayList<>();
+        for (int length = 1; length <= 18; length++) {
+            cards.add("9".repeat(length));
+            cards.add("1" + "0".repeat(length - 1));
+            cards.add("0".repeat(length));
+            if (length > 1) {
+                cards.add("0" + "9".repeat(length - 1));
+                cards.add("0".repeat(length - 1) + "1");
+            }
+            StringBuilder digits = new StringBuilder();
+            for (int i = 0; i < length; i++) digits.append((char) ('0' + random.nextInt(10)));
+            cards.add(digits.toString());
+        }
+        byte[] buffer = new byte[19];
+        AccountRegistry accounts = new AccountRegistry();
+        for (String card : cards) {
+            long packed = AccountRegistry.packCard(card);
+            //more leading zeros than the top bits can count take the arena
+            boolean arena = card.length() > 8 && card.startsWith("00000000");
+            require((packed < 0) == arena, card + (arena ? " was packed" : " was not packed"));
+            if (!arena) {
+                String unpacked = new String(buffer, 0, AccountRegistry.unpackCard(packed, buffer), StandardCharsets.US_ASCII);
+                require(unpacked.equals(card), card + " came back as " + unpacked);
+            }
+            accounts.approved(card, 1, true);
+        }
+        //forEach is what spills and saves write
+        List<String> listed = new ArrayList<>();
+        try {
+            accounts.forEach((account, length, state) -> listed.add(new String(account, 0, length, StandardCharsets.US_ASCII)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        require(new HashSet<>(listed).equals(new HashSet<>(cards)), "the registry lists " + listed);
+    }
+
+    /**
+     * Accounts and ids that only differ in characters above ASCII stay apart, in memory and after a spill.
+     */
+    private static void accountsNonAscii() throws IOException {
+        //the same low byte, a one byte per character encoding would make them equal
+        String[] keys = {"GB82WEST\u0100", "GB82WEST\u0200", "GB82WEST\u00e9", "GB82WEST\u20ac", "GB82WEST\ud83d\ude00"};
+        Path directory = Files.createTempDirectory("checks");
+        try (SpillingAccountRegistry spilling = new SpillingAccountRegistry(directory, 2);
+             SpillingTransactionIdSet spilledIds = new SpillingTransactionIdSet(directory, 2)) {
+            AccountRegistry accounts = new AccountRegistry();
+            TransactionIdSet ids = new TransactionIdSet();
+            for (int i = 0; i < keys.length; i++) {
+                require(accounts.state(keys[i]) == AccountRegistry.UNUSED, keys[i] + " is already used");
+                accounts.approved(keys[i], i, true);
+                require(spilling.state(keys[i]) == AccountRegistry.UNUSED, keys[i] + " is already used after a spill");
+                spilling.approved(keys[i], i, true);
+                require(ids.add(keys[i]), keys[i] + " is already seen");
+                require(spilledIds.add(keys[i]), keys[i] + " is already seen after a spill");
+            }
+            List<String> listed = new ArrayList<>();
+            accounts.forEach((account, length, state) -> listed.add(new String(account, 0, length, StandardCharsets.UTF_8)));
+            require(new HashSet<>(listed).equals(new HashSet<>(List.of(keys))), "the registry lists " + listed);
+            for (int i = 0; i < keys.length; i++) {
+                require(AccountRegistry.owner(accounts.state(keys[i])) == i, keys[i] + " has owner " + AccountRegistry.owner(accounts.state(keys[i])));
+                require(AccountRegistry.owner(spilling.state(keys[i])) == i, keys[i] + " has owner " + AccountRegistry.owner(spilling.state(keys[i])) + " after a spill");
+                require(!spilledIds.add(keys[i]), keys[i] + " is not seen after a spill");
+            }
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * A type or method the processor does not know is declined with its own reason, and archived as unknown.
+     */
+    private static void rulesUnknownTypeAndMethod() throws IOException {
+        Path directory = Files.createTempDirectory("checks");
+        try {
+            Path usersPath = write(directory, "users.csv", "USER_ID,USERNAME,BALANCE,COUNTRY,FROZEN,DEPOSIT_MIN,DEPOSIT_MAX,WITHDRAW_MIN,WITHDRAW_MAX\n"
+                    + "a,Alice,100.00,GB,0,1.00,1000.00,1.00,1000.00\n");
+            Path transactions = write(directory, "transactions.csv", "TRANSACTION_ID,USER_ID,TYPE,AMOUNT,METHOD,ACCOUNT_NUMBER\n"
+                    + "1,a,REFUND,10.00,TRANSFER,GB90BARC20038077143493\n"
+                    + "2,a,DEPOSIT,10.00,CASH,GB90BARC20038077143493\n"
+                    + "3,a,DEPOSIT,10.00,TRANSFER,GB90BARC20038077143493\n");
+            UserRegistry users = TransactionProcessorSample.readUsers(usersPath);
+            ProcessingState state = new ProcessingState();
+            try (TransactionArchive.Writer writer = TransactionArchive.create(directory.resolve("archive.bin"), users)) {
+                state.archiveTo(writer);
+                TransactionProcessorSample.processTransactions(users, transactions, new BinIndex(List.of()),
+                        directory.resolve("events.csv"), Metrics.DISABLED, state);
+                writer.commit();
+            }
+            requireEvents(directory, "1,DECLINED,Not valid type in transaction: REFUND",
+                    "2,DECLINED,Not valid method in transaction: CASH", "3,APPROVED,OK");
+            require(users.find("a").getBalance().equals(Money.ofCents(11_000)), "a has " + users.find("a").getBalance());
+
+            try (TransactionArchive archive = TransactionArchive.open(directory.resolve("archive.bin"))) {
+                int[] rows = archive.rows("a");
+                require(rows.length == 3, "archived rows " + rows.length);
+                require(archive.type(rows[0]).equals("UNKNOWN") && archive.reason(rows[0]) == Event.Reason.INVALID_TYPE,
+                        "row 1 archived as " + archive.type(rows[0]) + " " + archive.reason(rows[0]));
+                require(archive.method(rows[1]).equals("UNKNOWN") && archive.reason(rows[1]) == Event.Reason.INVALID_METHOD,
+                        "row 2 archived as " + archive.method(rows[1]) + " " + archive.reason(rows[1]));
+                require(archive.type(rows[2]).equals("DEPOSIT") && archive.method(rows[2]).equals("TRANSFER"),
+                        "row 3 archived as " + archive.type(rows[2]) + " " + archive.method(rows[2]));
+            }
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Incremental runs whose users come and go: a user missing from one run keeps its balance and its accounts in the
+     * snapshots of that run and of the runs after it.
+     */
+    private static void stateChainedLoad() throws IOException {
+        Path directory = Files.createTempDirectory("checks");
+        try {
+            String header = "USER_ID,USERNAME,BALANCE,COUNTRY,FROZEN,DEPOSIT_MIN,DEPOSIT_MAX,WITHDRAW_MIN,WITHDRAW_MAX\n";
+            String a = "a,Alice,100.00,GB,0,1.00,1000.00,1.00,1000.00\n";
+            String b = "b,Bob,100.00,GB,0,1.00,1000.00,1.00,1000.00\n";
+            String c = "c,Carol,100.00,GB,0,1.00,1000.00,1.00,1000.00\n";
+            Path ab = write(directory, "ab.csv", header + a + b);
+            Path ac = write(directory, "ac.csv", header + a + c);
+            String transactions = "TRANSACTION_ID,USER_ID,TYPE,AMOUNT,METHOD,ACCOUNT_NUMBER\n";
+
+            //b deposits with an account, c tries it while b is missing, b comes back, then c comes back
+            UserRegistry users = run(directory, ab, null, "1.bin", transactions
+                    + "1,a,DEPOSIT,10.00,TRANSFER,GB90BARC20038077143493\n"
+                    + "2,b,DEPOSIT,20.00,TRANSFER,GB82WEST12345698765432\n");
+            users = run(directory, ac, "1.bin", "2.bin", transactions
+                    + "3,c,DEPOSIT,30.00,TRANSFER,GB82WEST12345698765432\n"
+                    + "4,c,DEPOSIT,30.00,TRANSFER,GB33BUKB20201555555555\n");
+            requireEvents(directory, "3,DECLINED,Account GB82WEST12345698765432 is in use by other user", "4,APPROVED,OK");
+            require(users.find("c").getBalance().equals(Money.ofCents(13_000)), "c has " + users.find("c").getBalance());
+
+            users = run(directory, ab, "2.bin", "3.bin", transactions
+                    + "5,b,WITHDRAW,5.00,TRANSFER,GB82WEST12345698765432\n"
+                    + "2,a,DEPOSIT,5.00,TRANSFER,GB90BARC20038077143493\n");
+            requireEvents(directory, "5,APPROVED,OK", "2,DECLINED,Transaction 2 already processed (id non-unique)");
+            require(users.find("a").getBalance().equals(Money.ofCents(11_000)), "a has " + users.find("a").getBalance());
+            require(users.find("b").getBalance().equals(Money.ofCents(11_500)), "b has " + users.find("b").getBalance());
+
+            users = run(directory, ac, "3.bin", "4.bin", transactions
+                    + "6,c,WITHDRAW,5.00,TRANSFER,GB33BUKB20201555555555\n"
+                    + "7,c,DEPOSIT,5.00,TRANSFER,GB82WEST12345698765432\n");
+            requireEvents(directory, "6,APPROVED,OK", "7,DECLINED,Account GB82WEST12345698765432 is in use by other user");
+            require(users.find("c").getBalance().equals(Money.ofCents(12_500)), "c has " + users.find("c").getBalance());
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * A ledger over a loaded state sees its ids and accounts, and every save keeps both them and what the ledger added.
+     */
+    private static void ledgerSave() throws IOException {
+        Path directory = Files.createTempDirectory("checks");
+        try {
+            Path users = write(directory, "users.csv", "USER_ID,USERNAME,BALANCE,COUNTRY,FROZEN,DEPOSIT_MIN,DEPOSIT_MAX,WITHDRAW_MIN,WITHDRAW_MAX\n"
+                    + "a,Alice,100.00,GB,0,1.00,1000.00,1.00,1000.00\n"
+                    + "b,Bob,100.00,GB,0,1.00,1000.00,1.00,1000.00\n");
+            String transactions = "TRANSACTION_ID,USER_ID,TYPE,AMOUNT,METHOD,ACCOUNT_NUMBER\n";
+            run(directory, users, null, "1.bin", transactions + "1,a,DEPOSIT,10.00,TRANSFER,GB90BARC20038077143493\n");
+
+            //the ledger sees the loaded state, and a save keeps both it and what the ledger added
+            UserRegistry registry = TransactionProcessorSample.readUsers(users);
+            Ledger ledger = new Ledger(ProcessingState.load(directory.resolve("1.bin"), registry));
+            TransactionContext context = new TransactionContext(registry, new BinIndex(List.of()), ledger);
+            requireSequenced(ledger, context, registry, new Transaction("1", "b", "DEPOSIT", Money.ofCents(100), "TRANSFER", "GB82WEST12345698765432"),
+                    "Transaction 1 already processed (id non-unique)");
+            requireSequenced(ledger, context, registry, new Transaction("2", "b", "DEPOSIT", Money.ofCents(100), "TRANSFER", "GB90BARC20038077143493"),
+                    "Account GB90BARC20038077143493 is in use by other user");
+            requireSequenced(ledger, context, registry, new Transaction("3", "b", "DEPOSIT", Money.ofCents(100), "TRANSFER", "GB82WEST12345698765432"), "OK");
+            ledger.save(directory.resolve("2.bin"), registry);
+            requireSequenced(ledger, context, registry, new Transaction("3", "a", "DEPOSIT", Money.ofCents(100), "TRANSFER", "GB33BUKB20201555555555"),
+                    "Transaction 3 already processed (id non-unique)");
+            requireSequenced(ledger, context, registry, new Transaction("4", "a", "DEPOSIT", Money.ofCents(100), "TRANSFER", "GB82WEST12345698765432"),
+                    "Account GB82WEST12345698765432 is in use by other user");
+            requireSequenced(ledger, context, registry, new Transaction("5", "a", "DEPOSIT", Money.ofCents(100), "TRANSFER", "GB33BUKB20201555555555"), "OK");
+            ledger.save(directory.resolve("3.bin"), registry);
+
+            UserRegistry loaded = run(directory, users, "3.bin", "4.bin", transactions
+                    + "5,b,DEPOSIT,1.00,TRANSFER,GB82WEST12345698765432\n"
+                    + "6,b,DEPOSIT,1.00,TRANSFER,GB33BUKB20201555555555\n"
+                    + "7,b,WITHDRAW,1.00,TRANSFER,GB82WEST12345698765432\n");
+            requireEvents(directory, "5,DECLINED,Transaction 5 already processed (id non-unique)",
+                    "6,DECLINED,Account GB33BUKB20201555555555 is in use by other user", "7,APPROVED,OK");
+            require(loaded.find("a").getBalance().equals(Money.ofCents(11_100)), "a has " + loaded.find("a").getBalance());
+            require(loaded.find("b").getBalance().equals(Money.ofCents(10_000)), "b has " + loaded.find("b").getBalance());
+        } finally {
+            try (var files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static void requireSequenced(Ledger ledger, TransactionContext context, UserRegistry users, Transaction transaction, String message) {
+        context.reset(transaction, users.find(transaction.getUser_id()));
+        String event = ledger.sequence(context, null, Metrics.DISABLED).getMessage();
+        require(event.equals(message), "transaction " + transaction.getTransaction_id() + ": " + event);
+    }
+
+    /**
+     * Runs one incremental run in the directory, its events go to events.csv.
+     *
+     * @return users with their balances at the end of the run
+     */
+    private static UserRegistry run(Path directory, Path usersPath, String load, String save, String transactions) throws IOException {
+        UserRegistry users = TransactionProcessorSample.readUsers(usersPath);
+        ProcessingState state = load == null ? new ProcessingState() : ProcessingState.load(directory.resolve(load), users);
+        TransactionProcessorSample.processTransactions(users, write(directory, "transactions.csv", transactions),
+                new BinIndex(List.of()), directory.resolve("events.csv"), Metrics.DISABLED, state);
+        state.save(directory.resolve(save), users);
+        return users;
+    }
+
+    private static void requireEvents(Path directory, String... expected) throws IOException {
+        List<String> events = Files.readAllLines(directory.resolve("events.csv"));
+        require(events.subList(1, events.size()).equals(List.of(expected)), "events " + events);
+    }
+
+    private static Path write(Path directory, String name, String content) throws IOException {
+        return Files.writeString(directory.resolve(name), content);
+    }
+
+    /**
+     * @return IBAN of the country with random digits and valid check digits
+     */
+    private static String iban(char first, char second, int length, SplittableRandom random) {
+        StringBuilder iban = new StringBuilder(length).append(first).append(second).append("00");
+        while (iban.length() < length) iban.append((char) ('0' + random.nextInt(10)));
+        int check = 98 - IbanValidator.mod97(iban);
+        iban.setCharAt(2, (char) ('0' + check / 10));
+        iban.setCharAt(3, (char) ('0' + check % 10));
+        return iban.toString();
+    }
+
+    /**
+     * Runs the check if its name matches the filter and prints its result row.
+     *
+     * @param name
+     * @param filter
+     * @param body
+     */
+    private static void check(String name, String filter, Check body) {
+        if (!filter.isEmpty() && !name.contains(filter)) return;
+        try {
+            body.run();
+            System.out.println(name + ",ok");
+        } catch (Exception | AssertionError e) {
+            failures++;
+            System.out.println(name + ",FAILED " + e);
+        }
+    }
+
+    /**
+     * @param condition
+     * @param message why the check failed if the condition is false
+     * @throws IllegalStateException if the condition is false
+     */
+    static void require(boolean condition, String message) {
+        if (!condition) throw new IllegalStateException(message);
+    }
+}
@@ -0,0 +1,117 @@
+package com.playtech.assignment;
+
+import java.util.Arrays;
+
+/**
+ * ISO 3166-1 alpha-3 to alpha-2 country table, embedded so it is loaded once per JVM instead of read from a file.
+ * <p>
+ * Countries are handled as packed alpha-2 codes ((first - 'A') * 26 + (second - 'A')), so comparing the country
+ * of a user with the country of a card or IBAN is an int comparison. Alpha-3 codes are indexed the same way with
+ * three letters, which makes the lookup a plain array access.
+ */
+final class CountryCodes {
+    static final int UNKNOWN = -1;
+
+    private static final String ISO_CODES =
+            "AF AFG,AX ALA,AL ALB,DZ DZA,AS ASM,AD AND,AO AGO,AI AIA,AQ ATA,AG ATG,AR ARG,AM ARM,AW ABW,AU AUS,AT AUT," +
+            "AZ AZE,BS BHS,BH BHR,BD BGD,BB BRB,BY BLR,BE BEL,BZ BLZ,BJ BEN,BM BMU,BT BTN,BO BOL,BQ BES,BA BIH,BW BWA," +
+            "BV BVT,BR BRA,IO IOT,BN BRN,BG BGR,BF BFA,BI BDI,CV CPV,KH KHM,CM CMR,CA CAN,KY CYM,CF CAF,TD TCD,CL CHL," +
+            "CN CHN,CX CXR,CC CCK,CO COL,KM COM,CG COG,CD COD,CK COK,CR CRI,CI CIV,HR HRV,CU CUB,CW CUW,CY CYP,CZ CZE," +
+            "DK DNK,DJ DJI,DM DMA,DO DOM,EC ECU,EG EGY,SV SLV,GQ GNQ,ER ERI,EE EST,SZ SWZ,ET ETH,FK FLK,FO FRO,FJ FJI," +
+            "FI FIN,FR FRA,GF GUF,PF PYF,TF ATF,GA GAB,GM GMB,GE GEO,DE DEU,GH GHA,GI GIB,GR GRC,GL GRL,GD GRD,GP GLP," +
+            "GU GUM,GT GTM,GG GGY,GN GIN,GW GNB,GY GUY,HT HTI,HM HMD,VA VAT,HN HND,HK HKG,HU HUN,IS ISL,IN IND,ID IDN," +
+            "IR IRN,IQ IRQ,IE IRL,IM IMN,IL ISR,IT ITA,JM JAM,JP JPN,JE JEY,JO JOR,KZ KAZ,KE KEN,KI KIR,KP PRK,KR KOR," +
+            "KW KWT,KG KGZ,LA LAO,LV LVA,LB LBN,LS LSO,LR LBR,LY LBY,LI LIE,LT LTU,LU LUX,MO MAC,MG MDG,MW MWI,MY MYS," +
+            "MV MDV,ML MLI,MT MLT,MH MHL,MQ MTQ,MR MRT,MU MUS,YT MYT,MX MEX,FM FSM,MD MDA,MC MCO,MN MNG,ME MNE,MS MSR," +
+            "MA MAR,MZ MOZ,MM MMR,NA NAM,NR NRU,NP NPL,NL NLD,NC NCL,NZ NZL,NI NIC,NE NER,NG NGA,NU NIU,NF NFK,MK MKD," +
+            "MP MNP,NO NOR,OM OMN,PK PAK,PW PLW,PS PSE,PA PAN,PG PNG,PY PRY,PE PER,PH PHL,PN PCN,PL POL,PT PRT,PR PRI," +
+            "QA QAT,RE REU,RO ROU,RU RUS,RW RWA,BL BLM,SH SHN,KN KNA,LC LCA,MF MAF,PM SPM,VC VCT,WS WSM,SM SMR,ST STP," +
+            "SA SAU,SN SEN,RS SRB,SC SYC,SL SLE,SG SGP,SX SXM,SK SVK,SI SVN,SB SLB,SO SOM,ZA ZAF,GS SGS,SS SSD,ES ESP," +
+            "LK LKA,SD SDN,SR SUR,SJ SJM,SE SWE,CH CHE,SY SYR,TW TWN,TJ TJK,TZ TZA,TH THA,TL TLS,TG TGO,TK TKL,TO TON," +
+            "TT TTO,TN TUN,TR TUR,TM TKM,TC TCA,TV TUV,UG UGA,UA UKR,AE ARE,GB GBR,US USA,UM UMI,UY URY,UZ UZB,VU VUT," +
+            "VE VEN,VN VNM,VG VGB,VI VIR,WF WLF,EH ESH,YE YEM,ZM ZMB,ZW ZWE,XK XKX";
+
+    //packed alpha-3 -> packed alpha-2, UNKNOWN where there is no country
+    private static final short[] ISO3_TO_ISO2 = new short[26 * 26 * 26];
+    //packed alpha-2 -> alpha-3, null for unknown countries
+    private static final String[] ISO2_TO_ISO3 = new String[26 * 26];
+    //packed alpha-2 -> alpha-2 string, so rendering a code never allocates
+    private static final String[] ISO2 = new String[26 * 26];
+
+    static {
+        Arrays.fill(ISO3_TO_ISO2, (short) UNKNOWN);
+        for (int first = 0; first < 26; first++) {
+            for (int second = 0; second < 26; second++) {
+                ISO2[first * 26 + second] = new String(new char[]{(char) ('A' + first), (char) ('A' + second)});
+            }
+        }
+        for (String entry : ISO_CODES.split(",")) {
+            int iso2 = iso2Code(entry);
+            String iso3 = entry.substring(3);
+            ISO3_TO_ISO2[iso3Index(iso3)] = (short) iso2;
+            ISO2_TO_ISO3[iso2] = iso3;
+        }
+    }
+
+    private CountryCodes() {
+    }
+
+    /**
+     * @param code text starting with a two-letter country code, e.g. a user country or an IBAN
+     * @return the first two letters packed into an int, UNKNOWN if they are not uppercase letters
+     */
+    static int iso2Code(CharSequence code) {
+        if (code.length() < 2) return UNKNOWN;
+        char first = code.charAt(0);
+        char second = code.charAt(1);
+        if (first < 'A' || first > 'Z' || second < 'A' || second > 'Z') return UNKNOWN;
+        return (first - 'A') * 26 + (second - 'A');
+    }
+
+    /**
+     * @param iso3 three-letter country code
+     * @return packed alpha-2 code of the country, UNKNOWN if it is not in the table
+     */
+    static int iso3ToIso2Code(CharSequence iso3) {
+        int index = iso3Index(iso3);
+        return index < 0 ? UNKNOWN : ISO3_TO_ISO2[index];
+    }
+
+    /**
+     * @param iso3
+     * @return two-letter code of the country, the ISO3 code itself if it is not in the table
+     */
+    static String iso3ToIso2(String iso3) {
+        int code = iso3ToIso2Code(iso3);
+        return code == UNKNOWN ? iso3 : ISO2[code];
+    }
+
+    /**
+     * @param iso2
+     * @return three-letter code of the country, the ISO2 code itself if it is not in the table
+     */
+    static String iso2ToIso3(String iso2) {
+        int code = iso2Code(iso2);
+        String iso3 = code == UNKNOWN || iso2.length() != 2 ? null : ISO2_TO_ISO3[code];
+        return iso3 == null ? iso2 : iso3;
+    }
+
+    /**
+     * @param code packed alpha-2 code
+     * @return the two letters of the code
+     */
+    static String iso2(int code) {
+        return code == UNKNOWN ? "none" : ISO2[code];
+    }
+
+    private static int iso3Index(CharSequence iso3) {
+        if (iso3.length() != 3) return UNKNOWN;
+        int index = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = iso3.charAt(i);
+            if (c < 'A' || c > 'Z') return UNKNOWN;
+            index = index * 26 + (c - 'A');
+        }
+        return index;
+    }
+}
@@ -0,0 +1,330 @@
+package com.playtech.assignment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a simple CSV file (no quotes or escaped commas) straight from a memory-mapped buffer.
+ * <p>
+ * The file is mapped in windows so files over 2GB work too. Each row is only split into column offsets; numbers and
+ * money are parsed in place, and a String is created only when a column is asked for as one.
+ * <p>
+ * Input that cannot be mapped, like a decompressing stream, is read into a heap buffer that is refilled the same way.
+ * <p>
+ * A malformed row never stops next: a row with more than MAX_COLUMNS columns is returned like any other, and reading
+ * one of its columns throws an IllegalArgumentException, where the caller already handles a missing column.
+ */
+class CsvReader implements Closeable {
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int STREAM_WINDOW_SIZE = 1024 * 1024;
+    private static final int MAX_COLUMNS = 32;
+
+    //exactly one of them is set
+    private final FileChannel channel;
+    private final InputStream in;
+    private final long fileSize;
+
+    private ByteBuffer buffer;
+    //file offset of buffer position 0
+    private long windowStart;
+    private int windowSize;
+    //true if the window reaches the end of the input
+    private boolean lastWindow;
+
+    //position in the buffer where the next row starts
+    private int cursor;
+    private int rowStart;
+    private int rowEnd;
+    private int columnCount;
+    //true if the current row has more columns than fit, see check
+    private boolean tooManyColumns;
+    private final int[] columnStart = new int[MAX_COLUMNS];
+    private final int[] columnEnd = new int[MAX_COLUMNS];
+
+    private final Column column = new Column();
+
+    /**
+     * @param filePath
+     * @throws IOException
+     */
+    CsvReader(Path filePath) throws IOException {
+        this(filePath, 0);
+    }
+
+    /**
+     * @param filePath
+     * @param offset byte offset to start reading at, must be the start of a row
+     * @throws IOException
+     */
+    CsvReader(Path filePath, long offset) throws IOException {
+        channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        in = null;
+        fileSize = channel.size();
+        map(Math.min(offset, fileSize), false);
+    }
+
+    /**
+     * @param in input read from the start, closed with the reader
+     * @throws IOException
+     */
+    CsvReader(InputStream in) throws IOException {
+        this.channel = null;
+        this.in = in;
+        this.fileSize = -1;
+        this.buffer = ByteBuffer.allocate(0);
+        fill(false);
+    }
+
+    /**
+     * Moves to the next non-empty row.
+     *
+     * @return false when the end of the file is reached
+     * @throws IOException
+     */
+    boolean next() throws IOException {
+        while (true) {
+            int end = findLineEnd(cursor);
+            if (end < 0) {
+                if (lastWindow) {
+                    //last row of the file without a line break
+                    end = windowSize;
+                    if (cursor >= end) return false;
+                } else {
+                    //row crosses the window, map again starting from the row; grow the window if the row fills it
+                    if (channel != null) map(windowStart + cursor, cursor == 0);
+                    else fill(cursor == 0);
+                    continue;
+                }
+            }
+
+            rowStart = cursor;
+            rowEnd = end > rowStart && buffer.get(end - 1) == '\r' ? end - 1 : end;
+            cursor = end + 1;
+            if (rowEnd > rowStart) {
+                splitColumns();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return byte offset in the file where the current row starts
+     */
+    long rowOffset() {
+        return windowStart + rowStart;
+    }
+
+    /**
+     * @return byte offset in the file where the next row starts
+     */
+    long nextRowOffset() {
+        return windowStart + Math.min(cursor, windowSize);
+    }
+
+    int columns() {
+        return columnCount;
+    }
+
+    /**
+     * @param col
+     * @return a view of the column; it is reused, so it is only valid until the next call to column or next
+     */
+    CharSequence column(int col) {
+        check(col);
+        column.from = columnStart[col];
+        column.to = columnEnd[col];
+        return column;
+    }
+
+    /**
+     * @param col
+     * @return the column decoded as UTF-8
+     */
+    String string(int col) {
+        check(col);
+        byte[] bytes = new byte[columnEnd[col] - columnStart[col]];
+        buffer.get(columnStart[col], bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param col
+     * @param candidates
+     * @return the candidate equal to the column without allocating, or a new String if none matches
+     */
+    String string(int col, String... candidates) {
+        for (String candidate : candidates) {
+            if (equals(col, candidate)) return candidate;
+        }
+        return string(col);
+    }
+
+    /**
+     * @param col
+     * @param text ASCII text
+     * @return true if the column holds exactly the text
+     */
+    boolean equals(int col, String text) {
+        check(col);
+        int from = columnStart[col];
+        if (columnEnd[col] - from != text.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (buffer.get(from + i) != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param col
+     * @return the column as a long
+     * @throws NumberFormatException if it is not a whole number
+     */
+    long parseLong(int col) {
+        check(col);
+        int i = columnStart[col];
+        int end = columnEnd[col];
+        boolean negative = i < end && buffer.get(i) == '-';
+        if (negative) i++;
+        if (i == end) throw new NumberFormatException("Invalid number " + column(col));
+
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) throw new NumberFormatException("Invalid number " + column(col));
+            value = Math.addExact(Math.multiplyExact(value, 10), negative ? -digit : digit);
+        }
+        return value;
+    }
+
+    int parseInt(int col) {
+        return Math.toIntExact(parseLong(col));
+    }
+
+    /**
+     * @param col
+     * @return the column as money
+     * @throws NumberFormatException if it is not an amount
+     */
+    Money parseMoney(int col) {
+        CharSequence amount = column(col);
+        return Money.parse(amount, 0, amount.length());
+    }
+
+    /**
+     * @return the current row as text, meant for error messages
+     */
+    String line() {
+        byte[] bytes = new byte[rowEnd - rowStart];
+        buffer.get(rowStart, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+        else in.close();
+    }
+
+    private void map(long offset, boolean grow) throws IOException {
+        long remaining = fileSize - offset;
+        long size = grow ? Math.min((long) windowSize * 2, Integer.MAX_VALUE) : WINDOW_SIZE;
+        size = Math.min(remaining, size);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        windowStart = offset;
+        windowSize = (int) size;
+        lastWindow = offset + size >= fileSize;
+        cursor = 0;
+    }
+
+    /**
+     * Moves the unread rest of the window to the front of the buffer and reads the stream until the buffer is full.
+     */
+    private void fill(boolean grow) throws IOException {
+        byte[] bytes = buffer.array();
+        int rest = windowSize - cursor;
+        if (grow || bytes.length == 0) {
+            bytes = new byte[bytes.length == 0 ? STREAM_WINDOW_SIZE : (int) Math.min((long) bytes.length * 2, Integer.MAX_VALUE - 8)];
+        }
+        System.arraycopy(buffer.array(), cursor, bytes, 0, rest);
+        windowStart += cursor;
+        windowSize = rest;
+        cursor = 0;
+        while (windowSize < bytes.length) {
+            int read = in.read(bytes, windowSize, bytes.length - windowSize);
+            if (read < 0) {
+                lastWindow = true;
+                break;
+            }
+            windowSize += read;
+        }
+        buffer = ByteBuffer.wrap(bytes);
+    }
+
+    private int findLineEnd(int from) {
+        for (int i = from; i < windowSize; i++) {
+            if (buffer.get(i) == '\n') return i;
+        }
+        return -1;
+    }
+
+    private void splitColumns() {
+        columnCount = 0;
+        tooManyColumns = false;
+        int start = rowStart;
+        for (int i = rowStart; i <= rowEnd; i++) {
+            if (i == rowEnd || buffer.get(i) == ',') {
+                if (columnCount == MAX_COLUMNS) {
+                    tooManyColumns = true;
+                    return;
+                }
+                columnStart[columnCount] = start;
+                columnEnd[columnCount] = i;
+                columnCount++;
+                start = i + 1;
+            }
+        }
+    }
+
+    private void check(int col) {
+        if (tooManyColumns) throw new IllegalArgumentException("Too many columns in row " + line());
+        if (col >= columnCount) {
+            throw new IllegalArgumentException("Missing column " + col + " in row " + line());
+        }
+    }
+
+    /**
+     * Read-only view of bytes in the current window as Latin-1 characters.
+     */
+    private final class Column implements CharSequence {
+        private int from;
+        private int to;
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(from + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[to - from];
+            buffer.get(from, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
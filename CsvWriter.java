@@ -0,0 +1,171 @@
+package com.playtech.assignment;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes CSV output through one large buffer onto a FileChannel, so rows reach the disk in big batches instead of
+ * one small write per field. Text is encoded as UTF-8 directly into the buffer and money is written digit by digit.
+ */
+class CsvWriter implements Appendable, Flushable, Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    //bytes already handed to the channel
+    private long written;
+
+    /**
+     * @param filePath file to create or overwrite
+     * @throws IOException
+     */
+    CsvWriter(Path filePath) throws IOException {
+        this(FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * @param channel channel to write to from its current position
+     * @throws IOException
+     */
+    CsvWriter(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.written = channel.position();
+    }
+
+    @Override
+    public CsvWriter append(CharSequence text) throws IOException {
+        return append(text, 0, text.length());
+    }
+
+    @Override
+    public CsvWriter append(CharSequence text, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (!buffer.hasRemaining()) flushBuffer();
+                buffer.put((byte) c);
+            } else {
+                i = appendUtf8(text, i, end);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public CsvWriter append(char c) throws IOException {
+        if (c >= 0x80) return append(String.valueOf(c));
+        if (!buffer.hasRemaining()) flushBuffer();
+        buffer.put((byte) c);
+        return this;
+    }
+
+    /**
+     * @param amount
+     * @return this writer
+     * @throws IOException
+     */
+    CsvWriter append(Money amount) throws IOException {
+        amount.appendTo(this);
+        return this;
+    }
+
+    /**
+     * @param value
+     * @return this writer
+     * @throws IOException
+     */
+    CsvWriter append(long value) throws IOException {
+        if (value < 0) {
+            append('-');
+        } else {
+            value = -value;
+        }
+        //digits of the negative value, so Long.MIN_VALUE works too
+        if (value <= -10) append(-(value / 10));
+        return append((char) ('0' - value % 10));
+    }
+
+    /**
+     * Ends the current row.
+     *
+     * @return this writer
+     * @throws IOException
+     */
+    CsvWriter endRow() throws IOException {
+        return append('\n');
+    }
+
+    /**
+     * @return number of bytes written so far, including the ones still in the buffer
+     */
+    long position() {
+        return written + buffer.position();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    /**
+     * Flushes and forces the written bytes to the storage device.
+     *
+     * @throws IOException
+     */
+    void sync() throws IOException {
+        flushBuffer();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return index of the last char consumed
+     */
+    private int appendUtf8(CharSequence text, int i, int end) throws IOException {
+        if (buffer.remaining() < 4) flushBuffer();
+        char c = text.charAt(i);
+        if (c < 0x800) {
+            buffer.put((byte) (0xc0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+            return i;
+        }
+        if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+            int codePoint = Character.toCodePoint(c, text.charAt(i + 1));
+            buffer.put((byte) (0xf0 | (codePoint >> 18)));
+            buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+            buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+            return i + 1;
+        }
+        if (Character.isSurrogate(c)) {
+            //lone surrogate
+            buffer.put((byte) '?');
+            return i;
+        }
+        buffer.put((byte) (0xe0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+        buffer.put((byte) (0x80 | (c & 0x3f)));
+        return i;
+    }
+}
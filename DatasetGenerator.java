@@ -0,0 +1,319 @@
+package com.playtech.assignment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Seeded generator of users.csv, transactions.csv and bin mapping files of any size, with a configurable mix of
+ * rows that should be declined. The same seed and settings always give the same files.
+ * <p>
+ * Every user owns a few cards and IBANs of their own country. Most rows are valid deposits, or withdrawals with an
+ * account that already had a deposit and an amount the user can afford; the Mix ratios turn rows into invalid IBANs,
+ * credit cards, country mismatches, duplicate ids, accounts of other users and withdrawals over the balance.
+ * <p>
+ * Usage: DatasetGenerator --out=dir [--seed=42] [--users=1000] [--transactions=1000000] [--bins=10000]
+ * [--invalid-ibans=0.02] [--credit-cards=0.05] [--country-mismatches=0.02] [--duplicate-ids=0.01]
+ * [--shared-accounts=0.01] [--insufficient-balance=0.02] [--frozen-users=0.02] [--transfers=0.5]
+ */
+final class DatasetGenerator {
+    //countries with their IBAN length, used for users, IBANs and BIN ranges
+    private static final String[] COUNTRIES = {"EE", "DE", "GB", "FR", "LV", "SI", "MT", "CZ", "BE", "AT"};
+    private static final int[] IBAN_LENGTHS = {20, 22, 22, 27, 21, 19, 31, 24, 16, 20};
+
+    private static final int CARDS_PER_USER = 2;
+    private static final int IBANS_PER_USER = 2;
+    private static final int ACCOUNTS_PER_USER = CARDS_PER_USER + IBANS_PER_USER;
+
+    //BIN ranges are spread over the 10-digit prefixes starting here
+    private static final long FIRST_BIN = 4_000_000_000L;
+    private static final long BIN_STEP = 10_000L;
+
+    //recent ids that duplicate ids are taken from
+    private static final int RECENT_IDS = 1024;
+
+    /**
+     * Share of the transactions (or users, for frozenUsers) that get each kind of problem.
+     */
+    static final class Mix {
+        double invalidIbans = 0.02;
+        double creditCards = 0.05;
+        double countryMismatches = 0.02;
+        double duplicateIds = 0.01;
+        double sharedAccounts = 0.01;
+        double insufficientBalance = 0.02;
+        double frozenUsers = 0.02;
+        //share of the rows paid by TRANSFER, the rest are CARD
+        double transfers = 0.5;
+    }
+
+    private final long seed;
+    private final Mix mix;
+    private final int users;
+    private final int binRanges;
+
+    //state of the generated users, so valid rows stay within limits and balance
+    private final int[] country;
+    private final long[] balance;
+    private final long[] depositMin;
+    private final long[] depositMax;
+    private final long[] withdrawMin;
+    private final long[] withdrawMax;
+    private final boolean[] frozen;
+    private final boolean[] deposited;
+
+    /**
+     * @param seed
+     * @param users     number of users
+     * @param binRanges number of BIN ranges, at least 2 per country so every country has DC and CC ranges
+     * @param mix
+     */
+    DatasetGenerator(long seed, int users, int binRanges, Mix mix) {
+        this.seed = seed;
+        this.mix = mix;
+        this.users = users;
+        this.binRanges = Math.max(binRanges, 2 * COUNTRIES.length);
+        country = new int[users];
+        balance = new long[users];
+        depositMin = new long[users];
+        depositMax = new long[users];
+        withdrawMin = new long[users];
+        withdrawMax = new long[users];
+        frozen = new boolean[users];
+        deposited = new boolean[users * ACCOUNTS_PER_USER];
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path out = null;
+        long seed = 42;
+        int users = 1000;
+        int transactions = 1_000_000;
+        int bins = 10_000;
+        Mix mix = new Mix();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) throw new IllegalArgumentException("Unknown option " + arg);
+            String value = arg.substring(eq + 1);
+            switch (arg.substring(2, eq)) {
+                case "out" -> out = Path.of(value);
+                case "seed" -> seed = Long.parseLong(value);
+                case "users" -> users = Integer.parseInt(value);
+                case "transactions" -> transactions = Integer.parseInt(value);
+                case "bins" -> bins = Integer.parseInt(value);
+                case "invalid-ibans" -> mix.invalidIbans = Double.parseDouble(value);
+                case "credit-cards" -> mix.creditCards = Double.parseDouble(value);
+                case "country-mismatches" -> mix.countryMismatches = Double.parseDouble(value);
+                case "duplicate-ids" -> mix.duplicateIds = Double.parseDouble(value);
+                case "shared-accounts" -> mix.sharedAccounts = Double.parseDouble(value);
+                case "insufficient-balance" -> mix.insufficientBalance = Double.parseDouble(value);
+                case "frozen-users" -> mix.frozenUsers = Double.parseDouble(value);
+                case "transfers" -> mix.transfers = Double.parseDouble(value);
+                default -> throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (out == null) throw new IllegalArgumentException("--out=dir is required");
+
+        Files.createDirectories(out);
+        new DatasetGenerator(seed, users, bins, mix).write(out.resolve("users.csv"), out.resolve("transactions.csv"),
+                out.resolve("bins.csv"), transactions);
+    }
+
+    /**
+     * Writes the three input files.
+     *
+     * @param usersPath
+     * @param transactionsPath
+     * @param binMappingsPath
+     * @param transactions number of transaction rows
+     * @throws IOException
+     */
+    void write(Path usersPath, Path transactionsPath, Path binMappingsPath, int transactions) throws IOException {
+        writeUsers(usersPath);
+        writeBinMappings(binMappingsPath);
+        writeTransactions(transactionsPath, transactions);
+    }
+
+    void writeUsers(Path filePath) throws IOException {
+        Random random = new Random(seed);
+        try (CsvWriter writer = new CsvWriter(filePath)) {
+            writer.append("USER_ID,USERNAME,BALANCE,COUNTRY,FROZEN,DEPOSIT_MIN,DEPOSIT_MAX,WITHDRAW_MIN,WITHDRAW_MAX").endRow();
+            for (int i = 0; i < users; i++) {
+                country[i] = random.nextInt(COUNTRIES.length);
+                balance[i] = random.nextInt(500_000);
+                frozen[i] = random.nextDouble() < mix.frozenUsers;
+                depositMin[i] = 100L * (1 + random.nextInt(50));
+                depositMax[i] = 100L * (500 + random.nextInt(2000));
+                withdrawMin[i] = 100L * (1 + random.nextInt(50));
+                withdrawMax[i] = 100L * (300 + random.nextInt(2000));
+
+                writer.append(userId(i)).append(",user").append(i).append(',')
+                        .append(Money.ofCents(balance[i])).append(',')
+                        .append(COUNTRIES[country[i]]).append(',')
+                        .append(frozen[i] ? "1" : "0").append(',')
+                        .append(Money.ofCents(depositMin[i])).append(',')
+                        .append(Money.ofCents(depositMax[i])).append(',')
+                        .append(Money.ofCents(withdrawMin[i])).append(',')
+                        .append(Money.ofCents(withdrawMax[i])).endRow();
+            }
+        }
+    }
+
+    /**
+     * Range i belongs to country i % countries and is DC or CC by turns, so every country has both.
+     */
+    void writeBinMappings(Path filePath) throws IOException {
+        try (CsvWriter writer = new CsvWriter(filePath)) {
+            writer.append("name,range_from,range_to,type,country").endRow();
+            for (int i = 0; i < binRanges; i++) {
+                long from = FIRST_BIN + i * BIN_STEP;
+                writer.append("BANK ").append(i).append(',').append(from).append(',').append(from + BIN_STEP - 1).append(',')
+                        .append(isCreditRange(i) ? "CC" : "DC").append(',')
+                        .append(CountryCodes.iso2ToIso3(COUNTRIES[i % COUNTRIES.length])).endRow();
+            }
+        }
+    }
+
+    /**
+     * @param filePath
+     * @param rows
+     * @throws IOException
+     * @note writeUsers must run first, the rows follow the users it generated
+     */
+    void writeTransactions(Path filePath, int rows) throws IOException {
+        Random random = new Random(seed + 1);
+        String[] recentIds = new String[RECENT_IDS];
+        StringBuilder account = new StringBuilder(34);
+
+        try (CsvWriter writer = new CsvWriter(filePath)) {
+            writer.append("TRANSACTION_ID,USER_ID,TYPE,AMOUNT,METHOD,ACCOUNT_NUMBER").endRow();
+            for (int i = 0; i < rows; i++) {
+                int user = random.nextInt(users);
+                boolean transfer = random.nextDouble() < mix.transfers;
+                int accountSlot = (transfer ? CARDS_PER_USER + random.nextInt(IBANS_PER_USER) : random.nextInt(CARDS_PER_USER));
+                int accountIndex = user * ACCOUNTS_PER_USER + accountSlot;
+
+                //withdraw only if the account had a deposit, unless this row is meant to fail on balance
+                boolean insufficient = random.nextDouble() < mix.insufficientBalance;
+                boolean withdraw = insufficient || (deposited[accountIndex] && random.nextBoolean());
+                long amount = withdraw ? withdrawAmount(user, insufficient, random) : depositAmount(user, random);
+
+                //the account, possibly with one of the problems of the mix
+                account.setLength(0);
+                double problem = random.nextDouble();
+                int accountUser = user;
+                int accountCountry = country[user];
+                boolean valid = !frozen[user] && !insufficient;
+                if ((problem -= mix.sharedAccounts) < 0) {
+                    accountUser = random.nextInt(users);
+                    accountCountry = country[accountUser];
+                    valid &= accountUser == user;
+                } else if ((problem -= mix.countryMismatches) < 0) {
+                    accountCountry = (accountCountry + 1 + random.nextInt(COUNTRIES.length - 1)) % COUNTRIES.length;
+                    valid = false;
+                }
+                if (transfer) {
+                    iban(account, accountUser, accountSlot, accountCountry);
+                    if (random.nextDouble() < mix.invalidIbans) {
+                        //any other check digits are wrong
+                        int check = (account.charAt(2) - '0') * 10 + (account.charAt(3) - '0');
+                        check = 2 + (check - 2 + 1 + random.nextInt(96)) % 97;
+                        account.setCharAt(2, (char) ('0' + check / 10));
+                        account.setCharAt(3, (char) ('0' + check % 10));
+                        valid = false;
+                    }
+                } else {
+                    boolean credit = random.nextDouble() < mix.creditCards;
+                    card(account, accountUser, accountSlot, accountCountry, credit);
+                    valid &= !credit;
+                }
+
+                String id = random.nextDouble() < mix.duplicateIds && i > 0
+                        ? recentIds[random.nextInt(Math.min(i, RECENT_IDS))]
+                        : new UUID(random.nextLong(), random.nextLong()).toString();
+                recentIds[i % RECENT_IDS] = id;
+
+                writer.append(id).append(',').append(userId(user)).append(',')
+                        .append(withdraw ? "WITHDRAW" : "DEPOSIT").append(',')
+                        .append(Money.ofCents(amount)).append(',')
+                        .append(transfer ? "TRANSFER" : "CARD").append(',').append(account).endRow();
+
+                //keep track of what the processor will most likely approve
+                if (valid && accountUser == user) {
+                    if (withdraw) {
+                        balance[user] -= amount;
+                    } else {
+                        balance[user] += amount;
+                        deposited[accountIndex] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param i
+     * @return id of the i-th user, shaped like a UUID
+     */
+    static String userId(int i) {
+        long bits = i * 0x9E3779B97F4A7C15L;
+        return new UUID(bits, Long.reverse(bits)).toString();
+    }
+
+    private long depositAmount(int user, Random random) {
+        return depositMin[user] + (long) (random.nextDouble() * (depositMax[user] - depositMin[user]));
+    }
+
+    /**
+     * @return an amount within the withdraw limits, over the balance if insufficient is set and the limits allow it
+     */
+    private long withdrawAmount(int user, boolean insufficient, Random random) {
+        long min = withdrawMin[user];
+        long max = withdrawMax[user];
+        if (insufficient) return Math.max(min, Math.min(max, balance[user] + 1 + random.nextInt(10_000)));
+        return min + (long) (random.nextDouble() * (Math.max(min, Math.min(max, balance[user])) - min));
+    }
+
+    private boolean isCreditRange(int range) {
+        return (range / COUNTRIES.length) % 2 == 1;
+    }
+
+    /**
+     * Appends card number slot of the user, always the same digits for the same user and slot.
+     */
+    private void card(StringBuilder account, int user, int slot, int cardCountry, boolean credit) {
+        long hash = hash(user, slot);
+        //ranges of the country alternate DC, CC, DC...
+        int pairs = binRanges / (2 * COUNTRIES.length);
+        int range = cardCountry + COUNTRIES.length * (2 * (int) Long.remainderUnsigned(hash, pairs) + (credit ? 1 : 0));
+        account.append(FIRST_BIN + range * BIN_STEP + Long.remainderUnsigned(hash >>> 20, BIN_STEP));
+        appendDigits(account, hash(hash, 1), 6);
+    }
+
+    /**
+     * Appends the valid IBAN slot of the user in the country.
+     */
+    private void iban(StringBuilder account, int user, int slot, int ibanCountry) {
+        account.append(COUNTRIES[ibanCountry]).append("00");
+        appendDigits(account, hash(user, slot), IBAN_LENGTHS[ibanCountry] - 4);
+        int check = 98 - IbanValidator.mod97(account);
+        account.setCharAt(2, (char) ('0' + check / 10));
+        account.setCharAt(3, (char) ('0' + check % 10));
+    }
+
+    private long hash(long user, long slot) {
+        long h = seed ^ (user * 0x9E3779B97F4A7C15L) ^ (slot * 0xC2B2AE3D27D4EB4FL);
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    private void appendDigits(StringBuilder account, long hash, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i % 16 == 15) hash = hash(hash, i);
+            account.append((char) ('0' + Long.remainderUnsigned(hash, 10)));
+            hash = Long.divideUnsigned(hash, 10) ^ ((long) i << 59);
+        }
+    }
+}
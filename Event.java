@@ -0,0 +1,140 @@
+package com.playtech.assignment;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+class Event {
+    public static final String STATUS_DECLINED = "DECLINED";
+    public static final String STATUS_APPROVED = "APPROVED";
+
+    /**
+     * Why the transaction was approved or declined, the message is rendered from it and the arguments of the event.
+     */
+    enum Reason {
+        OK,
+        USER_NOT_FOUND,
+        USER_FROZEN,
+        DUPLICATE_ID,
+        INVALID_IBAN,
+        CREDIT_CARD,
+        INVALID_METHOD,
+        ACCOUNT_COUNTRY,
+        CARD_COUNTRY,
+        INVALID_AMOUNT,
+        OVER_DEPOSIT_LIMIT,
+        UNDER_DEPOSIT_LIMIT,
+        OVER_WITHDRAW_LIMIT,
+        UNDER_WITHDRAW_LIMIT,
+        INSUFFICIENT_BALANCE,
+        NEW_ACCOUNT,
+        ACCOUNT_IN_USE,
+        INVALID_TYPE
+    }
+
+    public String transactionId;
+    public String status;
+    public Reason reason;
+
+    //arguments of the message, only references to values that already exist
+    public String subject;
+    public String country;
+    public Money amount;
+    public Money limit;
+
+    /**
+     *
+     * @param transaction
+     * @param reason decline reason
+     * @param subject user id, account number, method or bank country the message names, null if none
+     * @return DECLINED event of the transaction
+     */
+    static Event declined(Transaction transaction, Reason reason, String subject) {
+        Event event = new Event();
+        event.transactionId = transaction.getTransaction_id();
+        event.status = STATUS_DECLINED;
+        event.reason = reason;
+        event.subject = subject;
+        return event;
+    }
+
+    /**
+     *
+     * @param transaction
+     * @param reason decline reason
+     * @param amount
+     * @param limit limit or balance the amount was compared with
+     * @return DECLINED event of the transaction
+     */
+    static Event declined(Transaction transaction, Reason reason, Money amount, Money limit) {
+        Event event = declined(transaction, reason, null);
+        event.amount = amount;
+        event.limit = limit;
+        return event;
+    }
+
+    /**
+     * @param transaction
+     * @return APPROVED event of the transaction
+     */
+    static Event approved(Transaction transaction) {
+        Event event = new Event();
+        event.transactionId = transaction.getTransaction_id();
+        event.status = STATUS_APPROVED;
+        event.reason = Reason.OK;
+        return event;
+    }
+
+    /**
+     * @param out
+     * @throws IOException
+     * @note writes the text of the message without building it first
+     */
+    void appendMessage(Appendable out) throws IOException {
+        switch (reason) {
+            case OK -> out.append("OK");
+            case USER_NOT_FOUND -> out.append("User ").append(subject).append(" not found in Users");
+            case USER_FROZEN -> out.append("User ").append(subject).append(" is frozen");
+            case DUPLICATE_ID -> out.append("Transaction ").append(transactionId).append(" already processed (id non-unique)");
+            case INVALID_IBAN -> out.append("Invalid iban ").append(subject);
+            case CREDIT_CARD -> out.append("Only DC cards allowed; got CC");
+            case INVALID_METHOD -> out.append("Not valid method in transaction: ").append(subject);
+            //the account country is the start of the IBAN
+            case ACCOUNT_COUNTRY -> out.append("Invalid account country ").append(subject, 0, Math.min(2, subject.length()))
+                    .append("; expected ").append(country);
+            case CARD_COUNTRY -> out.append("Invalid country ").append(subject).append("; expected ").append(country)
+                    .append(" (").append(CountryCodes.iso2ToIso3(country)).append(')');
+            case INVALID_AMOUNT -> {
+                out.append("Invalid amount ");
+                amount.appendTo(out);
+            }
+            case OVER_DEPOSIT_LIMIT -> appendAmounts(out, "Amount ", " is over the deposit limit of ");
+            case UNDER_DEPOSIT_LIMIT -> appendAmounts(out, "Amount ", " is under the deposit limit of ");
+            case OVER_WITHDRAW_LIMIT -> appendAmounts(out, "Amount ", " is over the withdraw limit of ");
+            case UNDER_WITHDRAW_LIMIT -> appendAmounts(out, "Amount ", " is under the withdraw limit of ");
+            case INSUFFICIENT_BALANCE -> appendAmounts(out, "Not enough balance to withdraw ", " - balance is too low at ");
+            case NEW_ACCOUNT -> out.append("Cannot withdraw with a new account ").append(subject);
+            case ACCOUNT_IN_USE -> out.append("Account ").append(subject).append(" is in use by other user");
+            case INVALID_TYPE -> out.append("Not valid type in transaction: ").append(subject);
+        }
+    }
+
+    private void appendAmounts(Appendable out, String before, String between) throws IOException {
+        out.append(before);
+        amount.appendTo(out);
+        out.append(between);
+        limit.appendTo(out);
+    }
+
+    /**
+     * @return the message as a String, for logging; the events file is written with appendMessage
+     */
+    String getMessage() {
+        StringBuilder message = new StringBuilder(64);
+        try {
+            appendMessage(message);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return message.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package com.playtech.assignment;
+
+/**
+ * IBAN check digit validation (ISO 13616, mod 97-10).
+ * <p>
+ * The remainder is computed digit by digit straight over the account number, so a check does not allocate.
+ * IBANs of countries listed in the registry must also have that country's length.
+ */
+final class IbanValidator {
+    private static final int MIN_LENGTH = 15;
+    private static final int MAX_LENGTH = 34;
+
+    //IBAN length per country, indexed by the two country letters, 0 if the country is not listed
+    private static final byte[] LENGTHS = new byte[26 * 26];
+
+    static {
+        String registry =
+                //SWIFT IBAN registry
+                "AD24 AE23 AL28 AT20 AZ28 BA20 BE16 BG22 BH22 BI27 BR29 BY28 CH21 CR22 CY28 CZ24 DE22 DJ27 DK18 DO28 " +
+                "EE20 EG29 ES24 FI18 FK18 FO18 FR27 GB22 GE22 GI23 GL18 GR27 GT28 HR21 HU28 IE22 IL23 IQ23 IS26 IT27 " +
+                "JO30 KW30 KZ20 LB28 LC32 LI21 LT20 LU20 LV21 LY25 MC27 MD24 ME22 MK19 MN20 MR27 MT31 MU30 NI28 NL18 " +
+                "NO15 OM23 PK24 PL28 PS29 PT25 QA29 RO24 RS22 RU33 SA24 SC31 SD18 SE24 SI19 SK24 SM27 SO23 ST25 SV28 " +
+                "TL23 TN24 TR26 UA29 VA22 VG24 XK20 YE30 " +
+                //countries using IBANs outside the registry
+                "AO25 BF28 BJ28 CF27 CG27 CI28 CM27 CV25 DZ26 GA27 GQ27 GW25 HN28 IR26 KM27 MA28 MG27 ML28 MZ25 NE28 " +
+                "SN28 TD27 TG28";
+        for (String entry : registry.split(" ")) {
+            LENGTHS[countryIndex(entry.charAt(0), entry.charAt(1))] = Byte.parseByte(entry.substring(2));
+        }
+    }
+
+    private IbanValidator() {
+    }
+
+    /**
+     * @param iban account number in electronic format (no spaces, upper case letters)
+     * @return true if the country, length and check digits are valid
+     */
+    static boolean isValid(CharSequence iban) {
+        int length = iban.length();
+        if (length < MIN_LENGTH || length > MAX_LENGTH) return false;
+
+        int country = countryIndex(iban.charAt(0), iban.charAt(1));
+        if (country < 0) return false;
+        int expectedLength = LENGTHS[country];
+        if (expectedLength != 0 && expectedLength != length) return false;
+        if (!isDigit(iban.charAt(2)) || !isDigit(iban.charAt(3))) return false;
+
+        return mod97(iban) == 1;
+    }
+
+    /**
+     * @param iban
+     * @return remainder of the IBAN rearranged (first four characters moved to the end, letters as 10..35) mod 97,
+     * -1 if it has a character that is not an upper case letter or digit
+     */
+    static int mod97(CharSequence iban) {
+        int length = iban.length();
+        int remainder = 0;
+        for (int n = 0; n < length; n++) {
+            //start after the country and check digits, then wrap around to them
+            char c = iban.charAt(n + 4 < length ? n + 4 : n + 4 - length);
+            if (isDigit(c)) {
+                remainder = (remainder * 10 + (c - '0')) % 97;
+            } else {
+                int value = letterValue(c);
+                if (value < 0) return -1;
+                remainder = (remainder * 100 + value) % 97;
+            }
+        }
+        return remainder;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * @param first
+     * @param second
+     * @return IBAN length of the country, 0 if the country is not listed and any length from 15 to 34 is accepted
+     */
+    static int countryLength(char first, char second) {
+        int country = countryIndex(first, second);
+        return country < 0 ? 0 : LENGTHS[country];
+    }
+
+    /**
+     * @return 10 for A up to 35 for Z, -1 if c is not an upper case letter like the country code
+     */
+    private static int letterValue(char c) {
+        if (c >= 'A' && c <= 'Z') return c - 'A' + 10;
+        return -1;
+    }
+
+    private static int countryIndex(char first, char second) {
+        if (first < 'A' || first > 'Z' || second < 'A' || second > 'Z') return -1;
+        return (first - 'A') * 26 + (second - 'A');
+    }
+}
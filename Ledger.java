@@ -0,0 +1,148 @@
+package com.playtech.assignment;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets several threads run the stateful rules at the same time, for submitters that do not share one sequencer.
+ * <p>
+ * A transaction locks the stripe of its user and then the stripe of its account. Transactions of different users and
+ * accounts run in parallel, while the balance check and debit of a user and the ownership and first deposit rules of
+ * an account stay atomic. Locks are always taken in this order (user, account, id), so two transactions never wait
+ * for each other in a cycle.
+ * <p>
+ * There is no global lock. The ids and accounts of the loaded state are only read until the next save, and what the
+ * transactions add goes to small tables split like the locks: the accounts of a stripe are guarded by its account
+ * lock, which the transaction already holds, and the ids by a short lock per id stripe.
+ * <p>
+ * The result is linearizable: every transaction gets the event it would get if the transactions had run one at a
+ * time, in the order they took their locks.
+ */
+final class Ledger {
+    //power of two, so a stripe is a mask away
+    private static final int STRIPES = 256;
+
+    private final ProcessingState state;
+    private final ReentrantLock[] userStripes = locks(STRIPES);
+    private final ReentrantLock[] accountStripes = locks(STRIPES);
+    private final ReentrantLock[] idStripes = locks(STRIPES);
+    //added since the last save, the loaded state has the rest
+    private final TransactionIdSet[] newIds = new TransactionIdSet[STRIPES];
+    private final AccountRegistry[] newAccounts = new AccountRegistry[STRIPES];
+
+    /**
+     * @param state seen ids and account history, only changed through this ledger from now on
+     */
+    Ledger(ProcessingState state) {
+        this.state = state;
+        for (int i = 0; i < STRIPES; i++) {
+            newIds[i] = new TransactionIdSet(0);
+            newAccounts[i] = new AccountRegistry(16);
+        }
+    }
+
+    /**
+     * Runs the stateful rules of the pipeline and applies the transaction if it is approved, see
+     * TransactionProcessorSample.sequenceTransaction.
+     *
+     * @param context  transaction with its user resolved, made with TransactionContext(users, binMappings, ledger)
+     * @param declined result of validateTransaction
+     * @param metrics
+     * @return event of the transaction
+     */
+    Event sequence(TransactionContext context, Event declined, Metrics metrics) {
+        User user = context.user();
+        //a missing user is declined before any rule reads or changes a balance
+        ReentrantLock userLock = user == null ? null : userStripes[user.getIndex() & (STRIPES - 1)];
+        ReentrantLock accountLock = accountStripes[stripe(context.transaction.getAccount_number())];
+        if (userLock != null) userLock.lock();
+        try {
+            accountLock.lock();
+            try {
+                return TransactionProcessorSample.sequenceTransaction(context, declined, metrics);
+            } finally {
+                accountLock.unlock();
+            }
+        } finally {
+            if (userLock != null) userLock.unlock();
+        }
+    }
+
+    /**
+     * @param id
+     * @return true if the id was not seen before
+     */
+    boolean addId(CharSequence id) {
+        int stripe = stripe(id);
+        idStripes[stripe].lock();
+        try {
+            return !state.processedIds.contains(id) && newIds[stripe].add(id);
+        } finally {
+            idStripes[stripe].unlock();
+        }
+    }
+
+    /**
+     * @param account
+     * @return state of the account, see AccountRegistry
+     * @note only called from sequence, which holds the stripe of the account, or once no transaction is running
+     */
+    int accountState(CharSequence account) {
+        int added = newAccounts[stripe(account)].state(account);
+        return added != AccountRegistry.UNUSED ? added : state.accounts.state(account);
+    }
+
+    /**
+     * @see AccountRegistry#approved
+     * @note only called from sequence, which holds the stripe of the account
+     */
+    void approved(CharSequence account, int userIndex, boolean deposit) {
+        newAccounts[stripe(account)].set(account, AccountRegistry.merge(accountState(account), userIndex, deposit));
+    }
+
+    /**
+     * Saves the state while no transaction is being applied.
+     *
+     * @param filePath
+     * @param users    users with their current balances
+     * @throws IOException
+     */
+    void save(Path filePath, UserRegistry users) throws IOException {
+        for (ReentrantLock lock : userStripes) lock.lock();
+        for (ReentrantLock lock : accountStripes) lock.lock();
+        for (ReentrantLock lock : idStripes) lock.lock();
+        try {
+            //the new ids and accounts join the loaded state, which is what gets saved
+            for (int i = 0; i < STRIPES; i++) {
+                newIds[i].forEach((id, length) -> state.processedIds.add(new String(id, 0, length, StandardCharsets.UTF_8)));
+                newIds[i].clear();
+                newAccounts[i].forEach((account, length, accountState) ->
+                        state.accounts.set(new String(account, 0, length, StandardCharsets.UTF_8), accountState));
+                newAccounts[i].clear();
+            }
+            state.save(filePath, users);
+        } finally {
+            for (ReentrantLock lock : idStripes) lock.unlock();
+            for (ReentrantLock lock : accountStripes) lock.unlock();
+            for (ReentrantLock lock : userStripes) lock.unlock();
+        }
+    }
+
+    /**
+     * @param key account or id
+     * @return stripe of the key, the same for equal keys whatever their CharSequence type
+     */
+    private static int stripe(CharSequence key) {
+        int hash = 0;
+        for (int i = 0; i < key.length(); i++) hash = hash * 31 + key.charAt(i);
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    private static ReentrantLock[] locks(int count) {
+        ReentrantLock[] locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) locks[i] = new ReentrantLock();
+        return locks;
+    }
+}
@@ -0,0 +1,248 @@
+package com.playtech.assignment;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the processing stages, safe to update from the validation threads.
+ * <p>
+ * Every stage keeps its call count, total time and a log-linear histogram of the time of each call (4 buckets per
+ * power of two, so percentiles and the maximum are within 25%). Declines are counted once per row, under the stage of
+ * the validation rule that declined it.
+ * DISABLED records nothing and does not read the clock.
+ * <p>
+ * Summaries are single-line JSON objects, written at the end of the run and optionally every few seconds.
+ */
+final class Metrics {
+    enum Stage {
+        PARSE, USER, ID, PAYMENT_METHOD, COUNTRY, AMOUNT, BALANCE, ACCOUNT, WRITE,
+        //a whole request of AuthorizationService, from reading it to buffering the answer
+        REQUEST
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final int BUCKETS = 256;
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    static final Metrics DISABLED = new Metrics(false);
+
+    private final boolean enabled;
+    private final long startNanos = System.nanoTime();
+    private final long startAllocatedBytes;
+    private final long startGcCount = gcCount();
+    private final long startGcMillis = gcMillis();
+
+    private final LongAdder approved = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder[] declined = adders(STAGES.length);
+    private final LongAdder[] nanos = adders(STAGES.length);
+    private final LongAdder[][] histograms = new LongAdder[STAGES.length][];
+    //reported with the stages if set
+    private volatile AccountVerdictCache verdicts;
+
+    Metrics() {
+        this(true);
+    }
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+        this.startAllocatedBytes = enabled ? THREADS.getTotalThreadAllocatedBytes() : 0;
+        for (int i = 0; i < STAGES.length; i++) histograms[i] = adders(BUCKETS);
+    }
+
+    /**
+     * @return current time to pass to passed or declined, 0 if disabled
+     */
+    long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records one call of the stage.
+     *
+     * @param stage
+     * @param since result of now, or of the previous passed
+     * @return current time, for timing the next stage
+     */
+    long passed(Stage stage, long since) {
+        if (!enabled) return 0;
+        long now = System.nanoTime();
+        long elapsed = now - since;
+        int i = stage.ordinal();
+        nanos[i].add(elapsed);
+        histograms[i][bucket(elapsed)].increment();
+        return now;
+    }
+
+    /**
+     * Records one call of the stage that declined the row.
+     *
+     * @param stage
+     * @param since result of now, or of the previous passed
+     */
+    void declined(Stage stage, long since) {
+        if (!enabled) return;
+        passed(stage, since);
+        declined[stage.ordinal()].increment();
+    }
+
+    /**
+     * Counts a row declined by the stage, when the call was already recorded by passed.
+     *
+     * @param stage
+     */
+    void declined(Stage stage) {
+        if (enabled) declined[stage.ordinal()].increment();
+    }
+
+    void approved() {
+        if (enabled) approved.increment();
+    }
+
+    /**
+     * Counts a row skipped because of an unexpected error.
+     */
+    void skipped() {
+        if (enabled) skipped.increment();
+    }
+
+    /**
+     * Adds the hit and miss counts of the cache to the summaries.
+     *
+     * @param cache
+     */
+    void watch(AccountVerdictCache cache) {
+        if (enabled) this.verdicts = cache;
+    }
+
+    /**
+     * Prints a summary every intervalSeconds from a daemon thread until the JVM exits.
+     *
+     * @param out
+     * @param intervalSeconds
+     */
+    void reportEvery(PrintStream out, long intervalSeconds) {
+        Thread reporter = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(intervalSeconds * 1000);
+                    report(out, false);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "metrics-reporter");
+        reporter.setDaemon(true);
+        reporter.start();
+    }
+
+    /**
+     * Prints the summary as one JSON line.
+     *
+     * @param out
+     * @param last true for the summary at the end of the run
+     */
+    void report(PrintStream out, boolean last) {
+        StringBuilder json = new StringBuilder(2048);
+        long rows = 0;
+        for (LongAdder count : histograms[Stage.PARSE.ordinal()]) rows += count.sum();
+        long declinedTotal = 0;
+        for (LongAdder count : declined) declinedTotal += count.sum();
+
+        json.append("{\"final\":").append(last)
+                .append(",\"elapsed_ms\":").append((System.nanoTime() - startNanos) / 1_000_000)
+                .append(",\"rows\":").append(rows)
+                .append(",\"approved\":").append(approved.sum())
+                .append(",\"declined\":").append(declinedTotal)
+                .append(",\"skipped\":").append(skipped.sum())
+                .append(",\"allocated_bytes\":").append(THREADS.getTotalThreadAllocatedBytes() - startAllocatedBytes)
+                .append(",\"gc_count\":").append(gcCount() - startGcCount)
+                .append(",\"gc_ms\":").append(gcMillis() - startGcMillis);
+
+        AccountVerdictCache cache = verdicts;
+        if (cache != null) {
+            json.append(",\"verdict_cache\":{\"hits\":").append(cache.hits())
+                    .append(",\"misses\":").append(cache.misses()).append('}');
+        }
+
+        json.append(",\"declines\":{");
+        for (int i = 0; i < STAGES.length; i++) {
+            if (i > 0) json.append(',');
+            json.append('"').append(STAGES[i]).append("\":").append(declined[i].sum());
+        }
+
+        json.append("},\"stages\":{");
+        for (int i = 0; i < STAGES.length; i++) {
+            long[] histogram = new long[BUCKETS];
+            long count = 0;
+            int highest = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                count += histogram[b] = histograms[i][b].sum();
+                if (histogram[b] > 0) highest = b;
+            }
+
+            if (i > 0) json.append(',');
+            json.append('"').append(STAGES[i]).append("\":{\"count\":").append(count)
+                    .append(",\"total_ms\":").append(nanos[i].sum() / 1_000_000)
+                    .append(",\"p50_ns\":").append(percentile(histogram, count, 0.5))
+                    .append(",\"p99_ns\":").append(percentile(histogram, count, 0.99))
+                    .append(",\"p999_ns\":").append(percentile(histogram, count, 0.999))
+                    .append(",\"max_ns\":").append(count == 0 ? 0 : bucketLimit(highest)).append('}');
+        }
+        json.append("}}");
+        out.println(json);
+    }
+
+    /**
+     * @param nanos
+     * @return histogram bucket, values under 4 get their own bucket, then 4 buckets per power of two
+     */
+    static int bucket(long nanos) {
+        if (nanos < 4) return (int) Math.max(nanos, 0);
+        int highestBit = 63 - Long.numberOfLeadingZeros(nanos);
+        return 4 * (highestBit - 1) + (int) ((nanos >>> (highestBit - 2)) & 3);
+    }
+
+    /**
+     * @param bucket
+     * @return largest value of the bucket
+     */
+    static long bucketLimit(int bucket) {
+        if (bucket < 4) return bucket;
+        int highestBit = bucket / 4 + 1;
+        long width = 1L << (highestBit - 2);
+        return (4 + bucket % 4) * width + width - 1;
+    }
+
+    private static long percentile(long[] histogram, long count, double percentile) {
+        if (count == 0) return 0;
+        long rank = (long) Math.ceil(count * percentile);
+        long seen = 0;
+        for (int b = 0; b < histogram.length; b++) {
+            seen += histogram[b];
+            if (seen >= rank) return bucketLimit(b);
+        }
+        return bucketLimit(histogram.length - 1);
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] adders = new LongAdder[size];
+        for (int i = 0; i < size; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) count += gc.getCollectionCount();
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) millis += gc.getCollectionTime();
+        return millis;
+    }
+}
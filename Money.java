@@ -0,0 +1,203 @@
+package com.playtech.assignment;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Exact money amount with two decimals.
+ * <p>
+ * The amount is kept as a primitive long of cents; only amounts that do not fit in a long (the input allows up to 20
+ * digits) fall back to a BigDecimal. Comparisons and arithmetic stay on the long path whenever both sides fit.
+ */
+final class Money implements Comparable<Money> {
+    static final Money ZERO = new Money(0, null);
+
+    private static final long MAX_BEFORE_DIGIT = Long.MAX_VALUE / 10;
+
+    //valid only when big is null
+    private final long cents;
+    //the amount in units (not cents), only set when it does not fit in a long of cents
+    private final BigDecimal big;
+
+    private Money(long cents, BigDecimal big) {
+        this.cents = cents;
+        this.big = big;
+    }
+
+    /**
+     * @param cents
+     * @return amount of that many cents
+     */
+    static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents, null);
+    }
+
+    /**
+     * @param text
+     * @return parsed amount
+     * @throws NumberFormatException if the text is not an amount with at most two decimals
+     */
+    static Money parse(CharSequence text) {
+        return parse(text, 0, text.length());
+    }
+
+    /**
+     * @param text
+     * @param from first character of the amount
+     * @param to   end of the amount, exclusive
+     * @return parsed amount
+     * @throws NumberFormatException if the text is not an amount with at most two decimals
+     */
+    static Money parse(CharSequence text, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (text.charAt(i) == '-' || text.charAt(i) == '+')) {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+
+        long units = 0;
+        int wholeDigits = 0;
+        //set once the units do not fit, the rest of the text is still checked before it goes to parseBig
+        boolean big = false;
+        for (; i < to && text.charAt(i) != '.'; i++, wholeDigits++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) throw invalid(text, from, to);
+            if (units > MAX_BEFORE_DIGIT || (units == MAX_BEFORE_DIGIT && digit > Long.MAX_VALUE % 10)) big = true;
+            else units = units * 10 + digit;
+        }
+
+        int fraction = 0;
+        int fractionDigits = 0;
+        if (i < to) {
+            //skip the '.'
+            for (i++; i < to; i++, fractionDigits++) {
+                int digit = text.charAt(i) - '0';
+                if (digit < 0 || digit > 9 || fractionDigits == 2) throw invalid(text, from, to);
+                fraction = fraction * 10 + digit;
+            }
+            if (fractionDigits == 0) throw invalid(text, from, to);
+        }
+        if (wholeDigits == 0) throw invalid(text, from, to);
+        if (fractionDigits == 1) fraction *= 10;
+
+        //units * 100 + fraction must still fit
+        if (big || units > (Long.MAX_VALUE - fraction) / 100) return parseBig(text, from, to);
+        long cents = units * 100 + fraction;
+        return ofCents(negative ? -cents : cents);
+    }
+
+    /**
+     * @note only called with text parse has checked, so BigDecimal never sees an exponent or more than two decimals
+     */
+    private static Money parseBig(CharSequence text, int from, int to) {
+        return of(new BigDecimal(text.subSequence(from, to).toString()));
+    }
+
+    private static Money of(BigDecimal amount) {
+        BigDecimal units = amount.setScale(2);
+        BigDecimal cents = units.movePointRight(2);
+        if (cents.unscaledValue().bitLength() < 64) return ofCents(cents.longValueExact());
+        return new Money(0, units);
+    }
+
+    private static NumberFormatException invalid(CharSequence text, int from, int to) {
+        return new NumberFormatException("Invalid amount " + text.subSequence(from, to));
+    }
+
+    /**
+     * @return true if the amount fits in a long of cents
+     */
+    boolean isCents() {
+        return big == null;
+    }
+
+    /**
+     * @return the amount in cents
+     * @throws ArithmeticException if it does not fit in a long
+     */
+    long getCents() {
+        if (big != null) throw new ArithmeticException("Amount " + big + " does not fit in a long of cents");
+        return cents;
+    }
+
+    int signum() {
+        return big == null ? Long.signum(cents) : big.signum();
+    }
+
+    Money plus(Money other) {
+        if (big == null && other.big == null) {
+            long sum = cents + other.cents;
+            //overflow only if both have the same sign and the sum has the other one
+            if (((cents ^ sum) & (other.cents ^ sum)) >= 0) return ofCents(sum);
+        }
+        return of(toBigDecimal().add(other.toBigDecimal()));
+    }
+
+    Money minus(Money other) {
+        if (big == null && other.big == null) {
+            long difference = cents - other.cents;
+            if (((cents ^ other.cents) & (cents ^ difference)) >= 0) return ofCents(difference);
+        }
+        return of(toBigDecimal().subtract(other.toBigDecimal()));
+    }
+
+    BigDecimal toBigDecimal() {
+        return big != null ? big : BigDecimal.valueOf(cents, 2);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        if (big == null && other.big == null) return Long.compare(cents, other.cents);
+        return toBigDecimal().compareTo(other.toBigDecimal());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && compareTo((Money) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return big == null ? Long.hashCode(cents) : big.hashCode();
+    }
+
+    /**
+     * Writes the amount with exactly two decimals, without building an intermediate String.
+     *
+     * @param out
+     * @throws IOException
+     */
+    void appendTo(Appendable out) throws IOException {
+        if (big != null) {
+            out.append(big.toPlainString());
+            return;
+        }
+        long value = cents;
+        if (value < 0) {
+            out.append('-');
+        }
+        //work on the negative value so Long.MIN_VALUE does not overflow
+        long negative = value < 0 ? value : -value;
+        appendUnits(out, -(negative / 100));
+        int fraction = (int) -(negative % 100);
+        out.append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+
+    private static void appendUnits(Appendable out, long units) throws IOException {
+        if (units >= 10) appendUnits(out, units / 10);
+        out.append((char) ('0' + units % 10));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(24);
+        try {
+            appendTo(text);
+        } catch (IOException e) {
+            //StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return text.toString();
+    }
+}
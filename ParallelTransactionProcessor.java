@@ -0,0 +1,265 @@
+package com.playtech.assignment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Multi-core variant of the streaming mode.
+ * <p>
+ * Rows are read in batches. The validation rules that do not depend on earlier rows (TransactionProcessorSample.validateTransaction)
+ * run on a fork-join pool, while a single sequencer applies the order-dependent rules (uniqueness, balance, account
+ * rules) in input order. Reading the next batch and validating it overlap with sequencing the current one, and the
+ * output is byte for byte the same as the single-threaded mode.
+ */
+class ParallelTransactionProcessor {
+    private static final int BATCH_SIZE = 16 * 1024;
+    //rows one fork-join task validates without splitting further
+    private static final int TASK_SIZE = 512;
+
+    private final ForkJoinPool pool;
+    private final Metrics metrics;
+
+    /**
+     * @param threads number of validation threads
+     */
+    ParallelTransactionProcessor(int threads) {
+        this(threads, Metrics.DISABLED);
+    }
+
+    /**
+     * @param threads number of validation threads
+     * @param metrics
+     */
+    ParallelTransactionProcessor(int threads, Metrics metrics) {
+        this.pool = new ForkJoinPool(threads);
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param users
+     * @param transactionsPath
+     * @param binMappings
+     * @param eventsPath
+     * @return number of events written
+     * @throws IOException
+     */
+    long process(final UserRegistry users, final Path transactionsPath, final BinIndex binMappings, final Path eventsPath) throws IOException {
+        return process(users, transactionsPath, binMappings, eventsPath, new ProcessingState());
+    }
+
+    /**
+     * @param users
+     * @param transactionsPath
+     * @param binMappings
+     * @param eventsPath
+     * @param state seen ids and account history of earlier runs, updated as the rows are processed
+     * @return number of events written
+     * @throws IOException
+     */
+    long process(final UserRegistry users, final Path transactionsPath, final BinIndex binMappings, final Path eventsPath, final ProcessingState state) throws IOException {
+        try (CsvReader reader = TransactionProcessorSample.openTransactions(transactionsPath, state)) {
+            return process(users, () -> Batch.read(reader, metrics), binMappings, eventsPath, state);
+        }
+    }
+
+    /**
+     * @param users
+     * @param feed transactions of several files, parsed in the background; every chunk of it is a batch
+     * @param binMappings
+     * @param eventsPath
+     * @param state seen ids and account history of earlier runs, updated as the rows are processed
+     * @return number of events written
+     * @throws IOException
+     */
+    long process(final UserRegistry users, final TransactionFeed feed, final BinIndex binMappings, final Path eventsPath, final ProcessingState state) throws IOException {
+        return process(users, () -> Batch.of(feed.nextChunk()), binMappings, eventsPath, state);
+    }
+
+    private long process(final UserRegistry users, final BatchSource batches, final BinIndex binMappings, final Path eventsPath, final ProcessingState state) throws IOException {
+        TransactionContext context = new TransactionContext(users, binMappings, state.processedIds, state.accounts);
+        long events = 0;
+
+        try (CsvWriter writer = TransactionProcessorSample.openEvents(eventsPath, state)) {
+            Batch batch = batches.next();
+            ForkJoinTask<?> validation = pool.submit(new Validate(batch, users, binMappings, metrics, 0, batch.size));
+
+            while (batch.size > 0) {
+                Batch next = batches.next();
+                validation.join();
+                ForkJoinTask<?> nextValidation = pool.submit(new Validate(next, users, binMappings, metrics, 0, next.size));
+
+                for (int i = 0; i < batch.size; i++) {
+                    Event event;
+                    try {
+                        if (batch.errors[i] != null) {
+                            //a stateless rule failed; the whole pipeline fails at the same rule, after the stateful
+                            //rules before it (the id is recorded first), so the row ends like in the single-threaded mode
+                            context.reset(batch.transactions[i]);
+                            event = TransactionProcessorSample.processTransaction(context, metrics);
+                        } else {
+                            context.reset(batch.transactions[i], batch.users[i]);
+                            event = TransactionProcessorSample.sequenceTransaction(context, batch.declined[i], metrics);
+                        }
+                    } catch (RuntimeException e) {
+                        //unexpected errors only skip the row, the rest of the file is still processed
+                        System.err.println("Skipping transaction \"" + batch.transactions[i].getTransaction_id() + "\": " + e.getMessage());
+                        metrics.skipped();
+                        continue;
+                    }
+                    long time = metrics.now();
+                    TransactionProcessorSample.writeEvent(writer, event);
+                    state.archive(batch.transactions[i], context.user(), event);
+                    metrics.passed(Metrics.Stage.WRITE, time);
+                    events++;
+                }
+                //checkpoints are only taken between batches, the next batch is already read but not applied
+                if (state.checkpointDue(batch.size)) state.checkpoint(users, batch.endOffset, writer);
+
+                batch = next;
+                validation = nextValidation;
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return events;
+    }
+
+    /**
+     * Runs the same input with 1, 2, 4... threads up to the number of cores and prints the throughput of each run.
+     * Every run starts from a fresh copy of the users and writes to a temporary events file.
+     *
+     * @param usersPath
+     * @param transactionsPath
+     * @param binMappingsPath
+     * @throws IOException
+     */
+    static void reportScaling(final Path usersPath, final Path transactionsPath, final Path binMappingsPath) throws IOException {
+        BinIndex binMappings = new BinIndex(TransactionProcessorSample.readBinMappings(binMappingsPath));
+        Path events = Files.createTempFile("events", ".csv");
+        int cores = Runtime.getRuntime().availableProcessors();
+        double singleThreaded = 0;
+
+        try {
+            for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+                UserRegistry users = TransactionProcessorSample.readUsers(usersPath);
+                long start = System.nanoTime();
+                long rows = new ParallelTransactionProcessor(threads).process(users, transactionsPath, binMappings, events);
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                double throughput = rows / seconds;
+                if (threads == 1) singleThreaded = throughput;
+                System.out.printf("threads=%d rows=%d seconds=%.3f rows_per_second=%.0f speedup=%.2f%n",
+                        threads, rows, seconds, throughput, throughput / singleThreaded);
+                if (threads == cores) break;
+            }
+        } finally {
+            Files.deleteIfExists(events);
+        }
+    }
+
+    private interface BatchSource {
+        /**
+         * @return next batch of the input, empty at the end
+         */
+        Batch next() throws IOException;
+    }
+
+    /**
+     * Rows read from the input together, with the results of their stateless checks.
+     */
+    private static final class Batch {
+        final Transaction[] transactions;
+        final User[] users;
+        final Event[] declined;
+        final RuntimeException[] errors;
+        final int size;
+        //offset of the first row after the batch
+        final long endOffset;
+
+        private Batch(Transaction[] transactions, int size, long endOffset) {
+            this.transactions = transactions;
+            this.endOffset = endOffset;
+            this.users = new User[size];
+            this.declined = new Event[size];
+            this.errors = new RuntimeException[size];
+            this.size = size;
+        }
+
+        /**
+         * @param transactions parsed rows, null at the end of the input
+         * @return batch of the rows, without an offset to checkpoint at
+         */
+        static Batch of(Transaction[] transactions) {
+            if (transactions == null) return new Batch(new Transaction[0], 0, 0);
+            return new Batch(transactions, transactions.length, 0);
+        }
+
+        static Batch read(CsvReader reader, Metrics metrics) throws IOException {
+            Transaction[] transactions = new Transaction[BATCH_SIZE];
+            int size = 0;
+            long time = metrics.now();
+            while (size < BATCH_SIZE && reader.next()) {
+                try {
+                    transactions[size] = TransactionProcessorSample.parseTransaction(reader);
+                    time = metrics.passed(Metrics.Stage.PARSE, time);
+                    size++;
+                } catch (RuntimeException e) {
+                    //unexpected errors only skip the row, the rest of the file is still processed
+                    System.err.println("Skipping transaction \"" + reader.line() + "\": " + e.getMessage());
+                    metrics.skipped();
+                    time = metrics.now();
+                }
+            }
+            return new Batch(size == BATCH_SIZE ? transactions : Arrays.copyOf(transactions, size), size, reader.nextRowOffset());
+        }
+    }
+
+    /**
+     * Runs the stateless checks of a range of a batch, splitting it until the ranges are small.
+     */
+    //fork-join tasks are Serializable through ForkJoinTask, these ones are never serialized
+    @SuppressWarnings("serial")
+    private static final class Validate extends RecursiveAction {
+        private final Batch batch;
+        private final UserRegistry users;
+        private final BinIndex binMappings;
+        private final Metrics metrics;
+        private final int from;
+        private final int to;
+
+        Validate(Batch batch, UserRegistry users, BinIndex binMappings, Metrics metrics, int from, int to) {
+            this.batch = batch;
+            this.users = users;
+            this.binMappings = binMappings;
+            this.metrics = metrics;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > TASK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Validate(batch, users, binMappings, metrics, from, middle), new Validate(batch, users, binMappings, metrics, middle, to));
+                return;
+            }
+            //stateless rules only, the context has no seen ids or account history
+            TransactionContext context = new TransactionContext(users, binMappings, null, null);
+            for (int i = from; i < to; i++) {
+                try {
+                    context.reset(batch.transactions[i]);
+                    batch.declined[i] = TransactionProcessorSample.validateTransaction(context, metrics);
+                    //the sequencer reuses the user instead of looking it up again
+                    batch.users[i] = context.user();
+                } catch (RuntimeException e) {
+                    batch.errors[i] = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.playtech.assignment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything the order-dependent checks remember between transactions: the seen ids and the account history, plus
+ * the user balances when it is saved.
+ * <p>
+ * Saving it at the end of a run and loading it in the next one lets daily files be processed one at a time, with the
+ * same events and balances as processing all of them in one run. The file is replaced atomically, so a crash while
+ * saving leaves the previous snapshot in place.
+ * <p>
+ * A user of the snapshot that is missing from the users of a later run keeps its balance and accounts: it is saved
+ * again with every snapshot of that run, and gets both back in a run whose users have it again.
+ * <p>
+ * A checkpoint is a snapshot taken during a run that also records how far the transactions and events files got.
+ * Resuming from it reads the transactions after that offset and cuts events.csv back to its length at the
+ * checkpoint, so no event is lost or written twice.
+ * <p>
+ * A spilling state keeps a bounded number of ids and accounts in memory and moves the rest to disk, see spilling.
+ */
+final class ProcessingState implements Closeable {
+    private static final int MAGIC = 0x54585354;
+    private static final int VERSION = 2;
+    //memory of one id or account in the tables of a spilling state, with the slack of the hash tables and the
+    //buffers of a spill
+    private static final int SPILLED_ENTRY_BYTES = 128;
+
+    final TransactionIdSet processedIds;
+    final AccountRegistry accounts;
+
+    //where the run continues, both 0 unless resuming from a checkpoint
+    long transactionsOffset;
+    long eventsOffset;
+
+    //checkpoints are taken every checkpointRows rows, none if the path is null
+    private Path checkpointPath;
+    private long checkpointRows;
+    private long rowsSinceCheckpoint;
+
+    //every processed row is also added to the archive, none if null
+    TransactionArchive.Writer archive;
+
+    //users of the loaded snapshot that this run does not have, saved again with the users of the run
+    private final List<AbsentUser> absentUsers = new ArrayList<>();
+
+    ProcessingState() {
+        this(new TransactionIdSet(), new AccountRegistry());
+    }
+
+    private ProcessingState(TransactionIdSet processedIds, AccountRegistry accounts) {
+        this.processedIds = processedIds;
+        this.accounts = accounts;
+    }
+
+    /**
+     * State whose seen ids and account history take about maxMemory bytes, half each; whatever does not fit is
+     * spilled to hash-partitioned files in the directory, see SpillStore. The events and balances are the same as
+     * with the state in memory.
+     *
+     * @param spillDirectory directory for the spill files, which are deleted by close
+     * @param maxMemory      bytes for the ids and accounts in memory
+     * @return empty state
+     * @throws IOException
+     * @note the Bloom filters of the spilled entries are not part of maxMemory, they take 10 bits per spilled entry
+     */
+    static ProcessingState spilling(Path spillDirectory, long maxMemory) throws IOException {
+        int maxEntries = (int) Math.min(1 << 28, Math.max(1024, maxMemory / 2 / SPILLED_ENTRY_BYTES));
+        return new ProcessingState(new SpillingTransactionIdSet(spillDirectory, maxEntries),
+                new SpillingAccountRegistry(spillDirectory, maxEntries));
+    }
+
+    /**
+     * @param filePath checkpoint file
+     * @param rows     rows between two checkpoints
+     */
+    void checkpointEvery(Path filePath, long rows) {
+        this.checkpointPath = filePath;
+        this.checkpointRows = rows;
+    }
+
+    /**
+     * @param archive archive the processed rows are added to, committed by the caller at the end of the run
+     */
+    void archiveTo(TransactionArchive.Writer archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Adds a processed row to the archive, if there is one.
+     *
+     * @param transaction
+     * @param user  user of the transaction, null if it is not in users.csv
+     * @param event event written for the transaction
+     * @throws IOException
+     */
+    void archive(Transaction transaction, User user, Event event) throws IOException {
+        if (archive != null) archive.add(transaction, user, event);
+    }
+
+    /**
+     * @param rows rows processed since the last call
+     * @return true if a checkpoint should be taken now
+     */
+    boolean checkpointDue(long rows) {
+        rowsSinceCheckpoint += rows;
+        return checkpointPath != null && rowsSinceCheckpoint >= checkpointRows;
+    }
+
+    /**
+     * Syncs the events written so far and saves a checkpoint.
+     *
+     * @param users
+     * @param transactionsOffset offset of the first row not processed yet
+     * @param events
+     * @throws IOException
+     * @note call only between rows, when every processed row has its event in the writer
+     */
+    void checkpoint(UserRegistry users, long transactionsOffset, CsvWriter events) throws IOException {
+        events.sync();
+        this.transactionsOffset = transactionsOffset;
+        this.eventsOffset = events.position();
+        rowsSinceCheckpoint = 0;
+        save(checkpointPath, users);
+    }
+
+    /**
+     * Deletes the checkpoint file once the run has finished.
+     *
+     * @throws IOException
+     */
+    void finish() throws IOException {
+        if (checkpointPath != null) Files.deleteIfExists(checkpointPath);
+    }
+
+    /**
+     * Deletes the spill files of a spilling state.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (processedIds instanceof Closeable ids) ids.close();
+        if (accounts instanceof Closeable registry) registry.close();
+    }
+
+    /**
+     * @param filePath
+     * @param users    users with their current balances
+     * @throws IOException
+     */
+    void save(Path filePath, UserRegistry users) throws IOException {
+        Path directory = filePath.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, filePath.getFileName().toString(), ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 20))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(transactionsOffset);
+                out.writeLong(eventsOffset);
+
+                out.writeInt(users.size() + absentUsers.size());
+                for (User user : users.getUsers()) {
+                    out.writeInt(user.getIndex());
+                    out.writeUTF(user.getId());
+                    writeMoney(out, user.getBalance());
+                }
+                for (AbsentUser user : absentUsers) {
+                    out.writeInt(user.index);
+                    out.writeUTF(user.id);
+                    writeMoney(out, user.balance);
+                }
+                processedIds.writeTo(out);
+                accounts.writeTo(out);
+
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporary, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Loads a snapshot and sets the balances of the users in it.
+     *
+     * @param filePath
+     * @param users users of this run, may differ from the ones the snapshot was saved with
+     * @return the seen ids and account history of the snapshot
+     * @throws IOException
+     * @note users missing from this run keep their accounts and balances, under indexes no current user has
+     */
+    static ProcessingState load(Path filePath, UserRegistry users) throws IOException {
+        return read(filePath, users, false);
+    }
+
+    /**
+     * Loads a checkpoint, the run continues where the checkpoint was taken.
+     *
+     * @param filePath
+     * @param users users of the interrupted run
+     * @return state with the offsets to continue from
+     * @throws IOException
+     */
+    static ProcessingState resume(Path filePath, UserRegistry users) throws IOException {
+        return read(filePath, users, true);
+    }
+
+    private static ProcessingState read(Path filePath, UserRegistry users, boolean resume) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(filePath), 1 << 20))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a state snapshot: " + filePath);
+            }
+            long transactionsOffset = in.readLong();
+            long eventsOffset = in.readLong();
+
+            int savedUsers = in.readInt();
+            int[] savedIndexes = new int[savedUsers];
+            String[] savedIds = new String[savedUsers];
+            Money[] savedBalances = new Money[savedUsers];
+            for (int i = 0; i < savedUsers; i++) {
+                savedIndexes[i] = in.readInt();
+                savedIds[i] = in.readUTF();
+                savedBalances[i] = readMoney(in);
+                if (savedIndexes[i] < 0 || savedIndexes[i] >= savedUsers) throw new IOException("Corrupt state snapshot: " + filePath);
+            }
+            TransactionIdSet processedIds = TransactionIdSet.readFrom(in);
+            AccountRegistry accounts = AccountRegistry.readFrom(in);
+            ProcessingState state = new ProcessingState(processedIds, accounts);
+
+            //user indexes of the snapshot are mapped to the indexes of this run; snapshots of older versions did
+            //not save the missing users, their accounts may have owners beyond the saved users
+            int[] userIndexes = new int[Math.max(savedUsers, accounts.maxOwner() + 1)];
+            boolean[] mapped = new boolean[userIndexes.length];
+            int missingIndex = users.size();
+            for (int i = 0; i < savedUsers; i++) {
+                User user = users.find(savedIds[i]);
+                if (user == null) {
+                    userIndexes[savedIndexes[i]] = missingIndex;
+                    state.absentUsers.add(new AbsentUser(missingIndex++, savedIds[i], savedBalances[i]));
+                } else {
+                    userIndexes[savedIndexes[i]] = user.getIndex();
+                    user.setBalance(savedBalances[i]);
+                }
+                mapped[savedIndexes[i]] = true;
+            }
+            //owners without a saved user still get indexes of their own, so their accounts stay in use
+            for (int i = 0; i < userIndexes.length; i++) {
+                if (!mapped[i]) userIndexes[i] = missingIndex++;
+            }
+            accounts.remapOwners(userIndexes);
+            if (resume) {
+                state.transactionsOffset = transactionsOffset;
+                state.eventsOffset = eventsOffset;
+            }
+            return state;
+        }
+    }
+
+    /**
+     * User of a loaded snapshot that is not in the users of this run.
+     */
+    private static final class AbsentUser {
+        //index its accounts are owned by in this run
+        final int index;
+        final String id;
+        final Money balance;
+
+        AbsentUser(int index, String id, Money balance) {
+            this.index = index;
+            this.id = id;
+            this.balance = balance;
+        }
+    }
+
+    private static void writeMoney(DataOutputStream out, Money amount) throws IOException {
+        out.writeBoolean(amount.isCents());
+        if (amount.isCents()) out.writeLong(amount.getCents());
+        else out.writeUTF(amount.toBigDecimal().toPlainString());
+    }
+
+    private static Money readMoney(DataInputStream in) throws IOException {
+        if (in.readBoolean()) return Money.ofCents(in.readLong());
+        return Money.parse(in.readUTF());
+    }
+}
@@ -0,0 +1,259 @@
+package com.playtech.assignment;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Users and BIN mappings compiled into one binary file that is memory-mapped at startup instead of parsing the CSVs.
+ * <p>
+ * Every string (ids, names, countries, types) is stored once in a string table and referenced by index. BIN ranges
+ * are stored as sorted columns, so loading copies two long arrays and the rest is decoded only for the ranges that
+ * cards actually hit. All numbers are big-endian:
+ * <pre>
+ * header   int magic, int version, long size and long modification time of users.csv and of the bins CSV,
+ *          int strings, int users, int bins
+ * strings  int[strings + 1] offsets into the bytes, then the UTF-8 bytes
+ * users    per user: int id, int username, int country, byte frozen, 5 amounts (balance, deposit min/max,
+ *          withdraw min/max), each a byte kind and a long: cents, or the string index of a larger amount
+ * bins     long[] range_from, long[] range_to, int[] name, int[] type, int[] country, int[] packed ISO2 country
+ * </pre>
+ * Usage: ReferenceData users.csv bins.csv reference.bin
+ */
+final class ReferenceData {
+    private static final int MAGIC = 0x54585244;
+    //version 1 stored the BIN ranges as in the CSV, 2 stores the flattened segments
+    private static final int VERSION = 2;
+    private static final int STAMP = 2 * Integer.BYTES;
+    private static final int HEADER_SIZE = STAMP + 4 * Long.BYTES + 3 * Integer.BYTES;
+    private static final int AMOUNT_SIZE = 1 + Long.BYTES;
+    private static final int USER_SIZE = 3 * Integer.BYTES + 1 + 5 * AMOUNT_SIZE;
+
+    private static final byte CENTS = 0;
+    private static final byte BIG_AMOUNT = 1;
+
+    final UserRegistry users;
+    final BinIndex binMappings;
+
+    //the mapped file and its string table, strings are decoded once and shared
+    private final MappedByteBuffer map;
+    private final int stringOffsets;
+    private final int stringBytes;
+    private final String[] strings;
+
+    private ReferenceData(MappedByteBuffer map) throws IOException {
+        this.map = map;
+        if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) throw new IOException("Not a compiled reference file");
+        int stringCount = map.getInt(HEADER_SIZE - 3 * Integer.BYTES);
+        int userCount = map.getInt(HEADER_SIZE - 2 * Integer.BYTES);
+        int binCount = map.getInt(HEADER_SIZE - Integer.BYTES);
+
+        stringOffsets = HEADER_SIZE;
+        stringBytes = stringOffsets + (stringCount + 1) * Integer.BYTES;
+        strings = new String[stringCount];
+
+        int position = stringBytes + map.getInt(stringOffsets + stringCount * Integer.BYTES);
+        users = new UserRegistry(userCount);
+        for (int i = 0; i < userCount; i++, position += USER_SIZE) {
+            int amounts = position + 3 * Integer.BYTES + 1;
+            users.add(new User(string(map.getInt(position)),     //ID
+                    string(map.getInt(position + 4)),           //NAME
+                    amount(amounts),                            //BALANCE
+                    string(map.getInt(position + 8)),           //COUNTRY
+                    map.get(position + 12) == 1,                //FROZEN
+                    amount(amounts + AMOUNT_SIZE),              //deposit_min
+                    amount(amounts + 2 * AMOUNT_SIZE),          //deposit_max
+                    amount(amounts + 3 * AMOUNT_SIZE),          //withdraw_min
+                    amount(amounts + 4 * AMOUNT_SIZE)));        //withdraw_max
+        }
+
+        //only the bounds are read now, see BinIndex
+        long[] rangeFrom = new long[binCount];
+        long[] rangeTo = new long[binCount];
+        map.slice(position, binCount * Long.BYTES).asLongBuffer().get(rangeFrom);
+        map.slice(position + binCount * Long.BYTES, binCount * Long.BYTES).asLongBuffer().get(rangeTo);
+        int columns = position + 2 * binCount * Long.BYTES;
+        binMappings = new BinIndex(rangeFrom, rangeTo, i -> new BinMapping(
+                string(map.getInt(columns + i * Integer.BYTES)),                  //name
+                rangeFrom[i],
+                rangeTo[i],
+                string(map.getInt(columns + (binCount + i) * Integer.BYTES)),     //type
+                string(map.getInt(columns + (2 * binCount + i) * Integer.BYTES)), //country
+                map.getInt(columns + (3 * binCount + i) * Integer.BYTES)));       //packed ISO2 country
+    }
+
+    public static void main(String[] args) throws IOException {
+        compile(Paths.get(args[0]), Paths.get(args[1]), Paths.get(args[2]));
+    }
+
+    /**
+     * Compiles the reference file unless it was compiled from these CSVs as they are now, then maps it.
+     *
+     * @param usersPath
+     * @param binMappingsPath
+     * @param referencePath
+     * @return users and BIN mappings of the reference file
+     * @throws IOException
+     */
+    static ReferenceData open(Path usersPath, Path binMappingsPath, Path referencePath) throws IOException {
+        if (!Arrays.equals(readStamp(referencePath), stamp(usersPath, binMappingsPath))) {
+            compile(usersPath, binMappingsPath, referencePath);
+        }
+        return load(referencePath);
+    }
+
+    /**
+     * @return sizes and modification times of the CSVs, to tell whether a reference file is still current
+     */
+    private static long[] stamp(Path usersPath, Path binMappingsPath) throws IOException {
+        return new long[]{Files.size(usersPath), Files.getLastModifiedTime(usersPath).toMillis(),
+                Files.size(binMappingsPath), Files.getLastModifiedTime(binMappingsPath).toMillis()};
+    }
+
+    /**
+     * @return stamp of the CSVs the file was compiled from, null if it does not exist or is not a reference file
+     */
+    private static long[] readStamp(Path referencePath) throws IOException {
+        if (!Files.exists(referencePath) || Files.size(referencePath) < HEADER_SIZE) return null;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(referencePath))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            return new long[]{in.readLong(), in.readLong(), in.readLong(), in.readLong()};
+        }
+    }
+
+    /**
+     * @param referencePath
+     * @return users and BIN mappings of the reference file
+     * @throws IOException
+     */
+    static ReferenceData load(Path referencePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(referencePath, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("Reference file too large: " + referencePath);
+            //the mapping stays valid after the channel is closed
+            return new ReferenceData(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Parses the CSVs and writes the reference file, replacing it atomically.
+     *
+     * @param usersPath
+     * @param binMappingsPath
+     * @param referencePath
+     * @throws IOException
+     */
+    static void compile(Path usersPath, Path binMappingsPath, Path referencePath) throws IOException {
+        //taken before reading, so a CSV changed while compiling makes the next run compile again
+        long[] stamp = stamp(usersPath, binMappingsPath);
+        UserRegistry users = TransactionProcessorSample.readUsers(usersPath);
+        //the index flattens the ranges the same way as when it is built from the CSV
+        BinIndex binMappings = new BinIndex(TransactionProcessorSample.readBinMappings(binMappingsPath));
+
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+
+        //user records and bin columns first, they fill the string table
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        for (User user : users.getUsers()) {
+            out.writeInt(intern(user.getId(), stringIndexes, strings));
+            out.writeInt(intern(user.getUsername(), stringIndexes, strings));
+            out.writeInt(intern(user.getCountry(), stringIndexes, strings));
+            out.writeByte(user.getFrozen() ? 1 : 0);
+            for (Money amount : new Money[]{user.getBalance(), user.getDeposit_min(), user.getDeposit_max(), user.getWithdraw_min(), user.getWithdraw_max()}) {
+                if (amount.isCents()) {
+                    out.writeByte(CENTS);
+                    out.writeLong(amount.getCents());
+                } else {
+                    out.writeByte(BIG_AMOUNT);
+                    out.writeLong(intern(amount.toBigDecimal().toPlainString(), stringIndexes, strings));
+                }
+            }
+        }
+        int bins = binMappings.size();
+        //the flattened segments, so overlapping ranges resolve the same way after loading
+        for (int i = 0; i < bins; i++) out.writeLong(binMappings.rangeFrom(i));
+        for (int i = 0; i < bins; i++) out.writeLong(binMappings.rangeTo(i));
+        for (int i = 0; i < bins; i++) out.writeInt(intern(binMappings.get(i).getName(), stringIndexes, strings));
+        for (int i = 0; i < bins; i++) out.writeInt(intern(binMappings.get(i).getType(), stringIndexes, strings));
+        for (int i = 0; i < bins; i++) out.writeInt(intern(binMappings.get(i).getCountry(), stringIndexes, strings));
+        for (int i = 0; i < bins; i++) out.writeInt(binMappings.get(i).getCountryCode());
+        out.flush();
+
+        Path directory = referencePath.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, referencePath.getFileName().toString(), ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                 DataOutputStream header = new DataOutputStream(new BufferedOutputStream(file, 1 << 20))) {
+                header.writeInt(MAGIC);
+                header.writeInt(VERSION);
+                for (long value : stamp) header.writeLong(value);
+                header.writeInt(strings.size());
+                header.writeInt(users.size());
+                header.writeInt(bins);
+
+                byte[][] encoded = new byte[strings.size()][];
+                int offset = 0;
+                for (int i = 0; i < encoded.length; i++) {
+                    encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                    header.writeInt(offset);
+                    offset += encoded[i].length;
+                }
+                header.writeInt(offset);
+                for (byte[] bytes : encoded) header.write(bytes);
+
+                records.writeTo(header);
+                header.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporary, referencePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static int intern(String text, Map<String, Integer> stringIndexes, List<String> strings) {
+        return stringIndexes.computeIfAbsent(text, key -> {
+            strings.add(key);
+            return strings.size() - 1;
+        });
+    }
+
+    /**
+     * @param index
+     * @return string of the table, decoded the first time it is used
+     */
+    private String string(int index) {
+        String text = strings[index];
+        if (text == null) {
+            int from = map.getInt(stringOffsets + index * Integer.BYTES);
+            int to = map.getInt(stringOffsets + (index + 1) * Integer.BYTES);
+            byte[] bytes = new byte[to - from];
+            map.get(stringBytes + from, bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+            strings[index] = text;
+        }
+        return text;
+    }
+
+    private Money amount(int position) {
+        long value = map.getLong(position + 1);
+        return map.get(position) == CENTS ? Money.ofCents(value) : Money.parse(string((int) value));
+    }
+}
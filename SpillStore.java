@@ -0,0 +1,570 @@
+package com.playtech.assignment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keys with an int value that were moved out of memory, kept in runs of memory-mapped files on local disk.
+ * <p>
+ * Every spill writes one run. The keys of a run are hash-partitioned: bucket b holds the keys whose 64-bit hash starts
+ * with the bits of b, about BUCKET_KEYS keys per bucket, so a probe reads two bucket offsets and a few index entries
+ * before it compares any key bytes. Each run has a Bloom filter of BLOOM_BITS bits per key in memory, a probe only
+ * touches the files of a run whose filter matches, for a key that is in no run that is about 1% of the runs.
+ * <p>
+ * Runs are probed newest first, so a key spilled again with a newer value shadows the older one. Like a binary
+ * counter, a new run is merged with the previous one while it is at least as large; that keeps the number of runs
+ * logarithmic and writes every key a logarithmic number of times. The files of a run are written
+ * sequentially, so a merge needs no memory beyond the Bloom filter of the new run:
+ * <pre>
+ * keys     per key: int value, int length, the key bytes
+ * index    per key in bucket order: long hash, long offset in the keys file
+ * buckets  int[buckets + 1] first index entry of every bucket, then int keys, int bucket bits
+ * </pre>
+ * A file stays mapped until its buffers are garbage collected, there is no call to unmap it. On Linux the files of a
+ * merged run are deleted right away but their space only comes back after the collection; Windows refuses to delete
+ * a mapped file, so such a file is kept and deleting it is tried again after later merges and at close.
+ * <p>
+ * The store is not thread-safe.
+ */
+final class SpillStore implements Closeable {
+    static final int MISSING = 0;
+
+    private static final int BUCKET_KEYS = 4;
+    private static final int BLOOM_BITS = 10;
+    private static final int BLOOM_HASHES = 7;
+    private static final int INDEX_ENTRY = 2 * Long.BYTES;
+    private static final int TRAILER = 2 * Integer.BYTES;
+
+    private final Path directory;
+    //oldest first
+    private final List<Run> runs = new ArrayList<>();
+    //files of dropped runs that are still mapped, see deleteFiles
+    private final List<Path> undeleted = new ArrayList<>();
+    private int nextRun;
+    //key bytes read back from a run
+    private byte[] buffer = new byte[256];
+
+    /**
+     * @param parent directory the spill files are created in, in a directory of their own
+     * @throws IOException
+     */
+    SpillStore(Path parent) throws IOException {
+        this.directory = Files.createTempDirectory(parent, "spill");
+    }
+
+    /**
+     * @param key
+     * @param length bytes of the key
+     * @return hash of the key, used by get and by the runs
+     */
+    static long hash(byte[] key, int length) {
+        //FNV-1a with a final mix, the bucket uses the high bits and the Bloom filter all of them
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < length; i++) hash = (hash ^ key[i]) * 0x100000001b3L;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb93fe1a85ec3L;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * Encodes a key the way the spilled keys are stored.
+     *
+     * @param key
+     * @param buffer at least 3 bytes per char of the key
+     * @return number of UTF-8 bytes of the key written to the buffer
+     */
+    static int utf8(CharSequence key, byte[] buffer) {
+        int length = key.length();
+        for (int i = 0; i < length; i++) {
+            char c = key.charAt(i);
+            if (c >= 0x80) {
+                //keys are ASCII in practice, anything else takes the slow path
+                byte[] bytes = key.toString().getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(bytes, 0, buffer, 0, bytes.length);
+                return bytes.length;
+            }
+            buffer[i] = (byte) c;
+        }
+        return length;
+    }
+
+    /**
+     * @return true if nothing was spilled yet
+     */
+    boolean isEmpty() {
+        return runs.isEmpty();
+    }
+
+    /**
+     * @param key
+     * @param length bytes of the key
+     * @param hash   see hash
+     * @return value of the newest run with the key, MISSING if no run has it
+     */
+    int get(byte[] key, int length, long hash) {
+        for (int r = runs.size() - 1; r >= 0; r--) {
+            Run run = runs.get(r);
+            if (!run.mightContain(hash)) continue;
+            long offset = run.find(key, length, hash);
+            if (offset >= 0) return run.keys.getInt(offset);
+        }
+        return MISSING;
+    }
+
+    /**
+     * @param expectedKeys keys the run will get
+     * @return writer of a new run, added to the store by its finish
+     * @throws IOException
+     */
+    RunWriter newRun(int expectedKeys) throws IOException {
+        return new RunWriter(expectedKeys);
+    }
+
+    /**
+     * Deletes the spill files. A file that is still mapped after a garbage collection is left for the JVM to delete
+     * on exit, with a warning, instead of failing a run whose results are already written.
+     */
+    @Override
+    public void close() {
+        for (Run run : runs) run.delete();
+        runs.clear();
+        undeleted.add(directory);
+        deleteFiles();
+        if (undeleted.isEmpty()) return;
+
+        //the only way to unmap a buffer that nothing references anymore
+        System.gc();
+        deleteFiles();
+        for (Path file : undeleted) {
+            System.err.println("Could not delete spill file " + file + ", deleting it on exit");
+            file.toFile().deleteOnExit();
+        }
+        undeleted.clear();
+    }
+
+    /**
+     * Deletes the files of the dropped runs that can be deleted by now, in the order they were dropped.
+     */
+    private void deleteFiles() {
+        undeleted.removeIf(file -> {
+            try {
+                Files.deleteIfExists(file);
+                return true;
+            } catch (IOException e) {
+                //still mapped, or the directory still has such a file
+                return false;
+            }
+        });
+    }
+
+    private static int bucketBits(long keys) {
+        int bits = 0;
+        while (bits < 30 && (1L << bits) * BUCKET_KEYS < keys) bits++;
+        return bits;
+    }
+
+    private static int bucket(long hash, int bits) {
+        return bits == 0 ? 0 : (int) (hash >>> (64 - bits));
+    }
+
+    private Path file(int run, String suffix) {
+        return directory.resolve("run-" + run + suffix);
+    }
+
+    /**
+     * Merges the newest runs while the newest one is at least as large as the one before it.
+     */
+    private void compact() throws IOException {
+        while (runs.size() >= 2 && runs.get(runs.size() - 1).size >= runs.get(runs.size() - 2).size) {
+            Run newer = runs.remove(runs.size() - 1);
+            Run older = runs.remove(runs.size() - 1);
+            runs.add(merge(newer, older));
+            newer.delete();
+            older.delete();
+        }
+        deleteFiles();
+    }
+
+    /**
+     * @return run with every key of both, with the value of the newer run if both have it
+     */
+    private Run merge(Run newer, Run older) throws IOException {
+        int id = nextRun++;
+        long upperBound = (long) newer.size + older.size;
+        int bits = bucketBits(upperBound);
+        Bloom bloom = new Bloom(upperBound);
+        int size = 0;
+        long keysWritten = 0;
+        //entries of the current bucket, to drop the keys of the older run that the newer one has
+        long[] bucketHashes = new long[16];
+        long[] bucketOffsets = new long[16];
+
+        try (Output keys = new Output(file(id, ".keys"));
+             Output index = new Output(file(id, ".index"));
+             Output buckets = new Output(file(id, ".buckets"))) {
+            for (int b = 0; b < (1 << bits); b++) {
+                buckets.putInt(size);
+                int inBucket = 0;
+                for (Run run : new Run[]{newer, older}) {
+                    //a smaller run has fewer bucket bits, its bucket holds the keys of several output buckets
+                    int from = run.bucketStart(b >>> (bits - run.bits));
+                    int to = run.bucketStart((b >>> (bits - run.bits)) + 1);
+                    for (int i = from; i < to; i++) {
+                        long hash = run.index.getLong((long) i * INDEX_ENTRY);
+                        if (bucket(hash, bits) != b) continue;
+                        long offset = run.index.getLong((long) i * INDEX_ENTRY + Long.BYTES);
+                        if (run == older && shadowed(newer, hash, offset, older, bucketHashes, bucketOffsets, inBucket)) continue;
+
+                        //the entry is copied as it is, value and length included
+                        int entry = 2 * Integer.BYTES + run.keys.getInt(offset + Integer.BYTES);
+                        keys.copy(run.keys, offset, entry);
+                        index.putLong(hash);
+                        index.putLong(keysWritten);
+                        bloom.add(hash);
+
+                        if (run == newer) {
+                            if (inBucket == bucketHashes.length) {
+                                bucketHashes = Arrays.copyOf(bucketHashes, inBucket * 2);
+                                bucketOffsets = Arrays.copyOf(bucketOffsets, inBucket * 2);
+                            }
+                            bucketHashes[inBucket] = hash;
+                            bucketOffsets[inBucket] = offset;
+                            inBucket++;
+                        }
+                        keysWritten += entry;
+                        size++;
+                    }
+                }
+            }
+            buckets.putInt(size);
+            buckets.putInt(size);
+            buckets.putInt(bits);
+        }
+        return new Run(id, bloom);
+    }
+
+    /**
+     * @return true if the key of the older run at offset is one of the keys the newer run wrote to this bucket
+     */
+    private boolean shadowed(Run newer, long hash, long offset, Run older, long[] bucketHashes, long[] bucketOffsets, int inBucket) {
+        for (int j = 0; j < inBucket; j++) {
+            if (bucketHashes[j] != hash) continue;
+            int length = older.keys.getInt(offset + Integer.BYTES);
+            byte[] key = older.readKey(offset, length).clone();
+            if (newer.matches(bucketOffsets[j], key, length)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the keys of one spill. Keys go to the keys file as they come, their hashes and offsets are sorted into
+     * buckets when the run is finished.
+     */
+    final class RunWriter {
+        private final int id = nextRun++;
+        private final Output keys;
+        private long[] hashes;
+        private long[] offsets;
+        private int size;
+        private long keysWritten;
+
+        private RunWriter(int expectedKeys) throws IOException {
+            this.keys = new Output(file(id, ".keys"));
+            this.hashes = new long[Math.max(16, expectedKeys)];
+            this.offsets = new long[hashes.length];
+        }
+
+        /**
+         * @param key
+         * @param length bytes of the key
+         * @param value  not MISSING
+         * @throws IOException
+         * @note a key must not be added twice to the same run
+         */
+        void add(byte[] key, int length, int value) throws IOException {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            hashes[size] = hash(key, length);
+            offsets[size] = keysWritten;
+            size++;
+            keys.putInt(value);
+            keys.putInt(length);
+            keys.put(key, length);
+            keysWritten += 2 * Integer.BYTES + length;
+        }
+
+        /**
+         * Writes the index and adds the run to the store.
+         *
+         * @throws IOException
+         */
+        void finish() throws IOException {
+            keys.close();
+            int bits = bucketBits(size);
+            Bloom bloom = new Bloom(size);
+
+            //counting sort of the entries by bucket
+            int[] starts = new int[(1 << bits) + 1];
+            for (int i = 0; i < size; i++) starts[bucket(hashes[i], bits) + 1]++;
+            for (int b = 0; b < (1 << bits); b++) starts[b + 1] += starts[b];
+            int[] order = new int[size];
+            int[] next = Arrays.copyOf(starts, 1 << bits);
+            for (int i = 0; i < size; i++) order[next[bucket(hashes[i], bits)]++] = i;
+
+            try (Output index = new Output(file(id, ".index"))) {
+                for (int i : order) {
+                    index.putLong(hashes[i]);
+                    index.putLong(offsets[i]);
+                    bloom.add(hashes[i]);
+                }
+            }
+            try (Output buckets = new Output(file(id, ".buckets"))) {
+                for (int start : starts) buckets.putInt(start);
+                buckets.putInt(size);
+                buckets.putInt(bits);
+            }
+            runs.add(new Run(id, bloom));
+            compact();
+        }
+    }
+
+    /**
+     * Files of one run, mapped.
+     */
+    private final class Run {
+        private final int id;
+        private final Bloom bloom;
+        //null once the run is deleted, so its buffers can be collected
+        private Mapping keys;
+        private Mapping index;
+        private Mapping buckets;
+        private final int size;
+        private final int bits;
+
+        private Run(int id, Bloom bloom) throws IOException {
+            this.id = id;
+            this.bloom = bloom;
+            this.keys = new Mapping(file(id, ".keys"));
+            this.index = new Mapping(file(id, ".index"));
+            this.buckets = new Mapping(file(id, ".buckets"));
+            this.size = buckets.getInt(buckets.size - TRAILER);
+            this.bits = buckets.getInt(buckets.size - Integer.BYTES);
+        }
+
+        boolean mightContain(long hash) {
+            return bloom.mightContain(hash);
+        }
+
+        int bucketStart(int bucket) {
+            return buckets.getInt((long) bucket * Integer.BYTES);
+        }
+
+        /**
+         * @return offset of the key in the keys file, -1 if the run does not have it
+         */
+        long find(byte[] key, int length, long hash) {
+            int b = bucket(hash, bits);
+            int to = bucketStart(b + 1);
+            for (int i = bucketStart(b); i < to; i++) {
+                if (index.getLong((long) i * INDEX_ENTRY) != hash) continue;
+                long offset = index.getLong((long) i * INDEX_ENTRY + Long.BYTES);
+                if (matches(offset, key, length)) return offset;
+            }
+            return -1;
+        }
+
+        boolean matches(long offset, byte[] key, int length) {
+            if (keys.getInt(offset + Integer.BYTES) != length) return false;
+            byte[] stored = readKey(offset, length);
+            return Arrays.equals(stored, 0, length, key, 0, length);
+        }
+
+        /**
+         * @return the store's buffer with the key of the entry at offset in its first length bytes
+         */
+        byte[] readKey(long offset, int length) {
+            if (buffer.length < length) buffer = new byte[Math.max(length, buffer.length * 2)];
+            keys.get(offset + 2 * Integer.BYTES, buffer, length);
+            return buffer;
+        }
+
+        /**
+         * Drops the mappings of the run and queues its files for deleteFiles, the run cannot be read anymore.
+         */
+        void delete() {
+            keys = null;
+            index = null;
+            buckets = null;
+            undeleted.add(file(id, ".keys"));
+            undeleted.add(file(id, ".index"));
+            undeleted.add(file(id, ".buckets"));
+        }
+    }
+
+    /**
+     * A file mapped in windows of WINDOW bytes, so it may be larger than one MappedByteBuffer.
+     */
+    private static final class Mapping {
+        private static final int WINDOW_BITS = 30;
+        private static final long WINDOW = 1L << WINDOW_BITS;
+
+        private final MappedByteBuffer[] windows;
+        private final long size;
+
+        private Mapping(Path filePath) throws IOException {
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                size = channel.size();
+                windows = new MappedByteBuffer[(int) ((size + WINDOW - 1) >>> WINDOW_BITS)];
+                for (int w = 0; w < windows.length; w++) {
+                    long from = (long) w << WINDOW_BITS;
+                    //the mapping stays valid after the channel is closed
+                    windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(WINDOW, size - from));
+                }
+            }
+        }
+
+        int getInt(long position) {
+            int w = (int) (position >>> WINDOW_BITS);
+            int i = (int) (position & (WINDOW - 1));
+            if (i + Integer.BYTES <= windows[w].limit()) return windows[w].getInt(i);
+            byte[] bytes = new byte[Integer.BYTES];
+            get(position, bytes, bytes.length);
+            return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+        }
+
+        /**
+         * @note index entries are 16 bytes from the start of the file, they never cross a window
+         */
+        long getLong(long position) {
+            return windows[(int) (position >>> WINDOW_BITS)].getLong((int) (position & (WINDOW - 1)));
+        }
+
+        /**
+         * Copies length bytes from position on to the buffer, advancing it.
+         */
+        void get(long position, ByteBuffer to, int length) {
+            for (int copied = 0; copied < length; ) {
+                long at = position + copied;
+                MappedByteBuffer window = windows[(int) (at >>> WINDOW_BITS)];
+                int i = (int) (at & (WINDOW - 1));
+                int n = Math.min(length - copied, window.limit() - i);
+                to.put(to.position(), window, i, n);
+                to.position(to.position() + n);
+                copied += n;
+            }
+        }
+
+        void get(long position, byte[] bytes, int length) {
+            for (int copied = 0; copied < length; ) {
+                long at = position + copied;
+                MappedByteBuffer window = windows[(int) (at >>> WINDOW_BITS)];
+                int i = (int) (at & (WINDOW - 1));
+                int n = Math.min(length - copied, window.limit() - i);
+                window.get(i, bytes, copied, n);
+                copied += n;
+            }
+        }
+    }
+
+    /**
+     * File written sequentially through a buffer, cheaper per call than a DataOutputStream.
+     */
+    private static final class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        private Output(Path filePath) throws IOException {
+            this.channel = FileChannel.open(filePath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+        }
+
+        void putInt(int value) throws IOException {
+            if (buffer.remaining() < Integer.BYTES) flush();
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < Long.BYTES) flush();
+            buffer.putLong(value);
+        }
+
+        void put(byte[] bytes, int length) throws IOException {
+            for (int written = 0; written < length; ) {
+                if (!buffer.hasRemaining()) flush();
+                int n = Math.min(length - written, buffer.remaining());
+                buffer.put(bytes, written, n);
+                written += n;
+            }
+        }
+
+        /**
+         * Appends length bytes of the mapping from position on.
+         */
+        void copy(Mapping from, long position, int length) throws IOException {
+            for (int copied = 0; copied < length; ) {
+                if (!buffer.hasRemaining()) flush();
+                int n = Math.min(length - copied, buffer.remaining());
+                from.get(position + copied, buffer, n);
+                copied += n;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (channel) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Bloom filter over the hashes of a run, the probe positions are derived from the hash and its rotation and scaled
+     * to the filter size with a multiplication instead of a division.
+     */
+    private static final class Bloom {
+        private final long[] bits;
+        private final long size;
+
+        private Bloom(long keys) {
+            this.size = Math.max(64, keys * BLOOM_BITS);
+            this.bits = new long[(int) ((size + 63) >>> 6)];
+        }
+
+        void add(long hash) {
+            long step = Long.rotateLeft(hash, 32) | 1;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = Math.unsignedMultiplyHigh(hash + i * step, size);
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        boolean mightContain(long hash) {
+            long step = Long.rotateLeft(hash, 32) | 1;
+            for (int i = 0; i < BLOOM_HASHES; i++) {
+                long bit = Math.unsignedMultiplyHigh(hash + i * step, size);
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.playtech.assignment;
+
+import java.io.Closeable;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * AccountRegistry that keeps at most maxAccounts accounts in memory. When it is full, the accounts move to a
+ * SpillStore on disk and it starts over empty.
+ * <p>
+ * An account found on disk is copied back into memory, so an account that keeps being used stays in memory and
+ * approving a transaction with it does not read the disk again. Its state on disk is shadowed by the newer one the
+ * next spill writes.
+ */
+final class SpillingAccountRegistry extends AccountRegistry implements Closeable {
+    private final SpillStore spilled;
+    private final int maxAccounts;
+    //UTF-8 bytes of the account being looked up, like in the arena
+    private byte[] key = new byte[64];
+    private int keyLength;
+
+    /**
+     * @param directory   directory for the spill files
+     * @param maxAccounts accounts kept in memory
+     * @throws IOException
+     */
+    SpillingAccountRegistry(Path directory, int maxAccounts) throws IOException {
+        this.spilled = new SpillStore(directory);
+        this.maxAccounts = maxAccounts;
+    }
+
+    @Override
+    int state(CharSequence account) {
+        int state = super.state(account);
+        if (state != UNUSED || spilled.isEmpty()) return state;
+
+        encode(account);
+        state = spilled.get(key, keyLength, SpillStore.hash(key, keyLength));
+        if (state != UNUSED) {
+            set(account, state);
+            if (size() >= maxAccounts) spill();
+        }
+        return state;
+    }
+
+    @Override
+    void approved(CharSequence account, int userIndex, boolean deposit) {
+        if (spilled.isEmpty()) super.approved(account, userIndex, deposit);
+        else set(account, merge(state(account), userIndex, deposit));
+        if (size() >= maxAccounts) spill();
+    }
+
+    @Override
+    public void close() throws IOException {
+        spilled.close();
+    }
+
+    private void spill() {
+        try {
+            SpillStore.RunWriter run = spilled.newRun(size());
+            forEach(run::add);
+            run.finish();
+        } catch (IOException e) {
+            //the account history would be incomplete, the run has to stop
+            throw new IOError(e);
+        }
+        clear();
+    }
+
+    private void encode(CharSequence account) {
+        if (key.length < 3 * account.length()) key = new byte[3 * account.length()];
+        keyLength = SpillStore.utf8(account, key);
+    }
+}
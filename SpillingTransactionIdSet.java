@@ -0,0 +1,74 @@
+package com.playtech.assignment;
+
+import java.io.Closeable;
+import java.io.IOError;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * TransactionIdSet that keeps at most maxIds ids in memory. When it is full, its ids move to a SpillStore on disk and
+ * it starts over empty, so the memory stays bounded however many transactions a run has.
+ * <p>
+ * A new id is checked against the ids in memory first, then against the spilled ones; most new ids are rejected by
+ * the Bloom filters of the store without reading its files.
+ */
+final class SpillingTransactionIdSet extends TransactionIdSet implements Closeable {
+    private final SpillStore spilled;
+    private final int maxIds;
+    //UTF-8 bytes of the id being looked up
+    private byte[] key = new byte[64];
+    private int keyLength;
+
+    /**
+     * @param directory directory for the spill files
+     * @param maxIds    ids kept in memory
+     * @throws IOException
+     */
+    SpillingTransactionIdSet(Path directory, int maxIds) throws IOException {
+        super(maxIds);
+        this.spilled = new SpillStore(directory);
+        this.maxIds = maxIds;
+    }
+
+    @Override
+    boolean add(CharSequence id) {
+        if (!spilled.isEmpty()) {
+            if (super.contains(id) || isSpilled(id)) return false;
+        }
+        if (!super.add(id)) return false;
+        if (size() >= maxIds) spill();
+        return true;
+    }
+
+    @Override
+    boolean contains(CharSequence id) {
+        return super.contains(id) || (!spilled.isEmpty() && isSpilled(id));
+    }
+
+    @Override
+    public void close() throws IOException {
+        spilled.close();
+    }
+
+    private boolean isSpilled(CharSequence id) {
+        encode(id);
+        return spilled.get(key, keyLength, SpillStore.hash(key, keyLength)) != SpillStore.MISSING;
+    }
+
+    private void spill() {
+        try {
+            SpillStore.RunWriter run = spilled.newRun(size());
+            forEach((id, length) -> run.add(id, length, 1));
+            run.finish();
+        } catch (IOException e) {
+            //the ids in memory cannot be trusted to be unique anymore, the run has to stop
+            throw new IOError(e);
+        }
+        clear();
+    }
+
+    private void encode(CharSequence id) {
+        if (key.length < 3 * id.length()) key = new byte[3 * id.length()];
+        keyLength = SpillStore.utf8(id, key);
+    }
+}
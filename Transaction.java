@@ -0,0 +1,51 @@
+package com.playtech.assignment;
+
+class Transaction {
+    private String transaction_id;
+    private String user_id;
+    private String type;
+
+    private Money amount;
+
+    private String method;
+
+    private String account_number;
+
+    public String getTransaction_id() {
+        return transaction_id;
+    }
+
+    public String getUser_id() {
+        return user_id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Money getAmount() {
+        return amount;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getAccount_number() {
+        return account_number;
+    }
+
+
+    /**
+     * @param type   as in the row, a type other than DEPOSIT or WITHDRAW is declined by the AMOUNT rule
+     * @param method as in the row, a method other than CARD or TRANSFER is declined by the PAYMENT_METHOD rule
+     */
+    public Transaction(String transaction_id, String user_id, String type, Money amount, String method, String account_number) {
+        this.transaction_id = transaction_id;
+        this.user_id = user_id;
+        this.type = type;
+        this.amount = amount;
+        this.method = method;
+        this.account_number = account_number;
+    }
+}
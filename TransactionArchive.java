@@ -0,0 +1,641 @@
+package com.playtech.assignment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Binary archive of the processed transactions and their events, stored by column and indexed by user, so the rows
+ * of one user are read without scanning events.csv.
+ * <p>
+ * Rows are written in the order of events.csv, in blocks of BLOCK_ROWS rows. Every block keeps each column in one
+ * run, the fixed-width columns first, then the transaction ids and account numbers as UTF-8 bytes with their end
+ * offsets. Users are stored as an index into the user table, which lists the users of users.csv in their registry
+ * order (then the unknown user ids of declined rows) with their balance when the run started. The per-user index at
+ * the end holds the row numbers of every user, in row order. All numbers are big-endian:
+ * <pre>
+ * header   int magic, int version, int block rows, int blocks, long rows, int users,
+ *          long offset of the block table, long offset of the user table, long offset of the index
+ * blocks   int rows, int big amounts, int id bytes, int account bytes, long[] cents, int[] user, byte[] type,
+ *          byte[] method (index into TYPES and METHODS, the last entry for any value the rules decline), byte[] status, byte[] reason, int[] id ends, int[] account ends, id bytes, account bytes,
+ *          per amount that does not fit in a long of cents: int row, short length, ASCII amount
+ * blocks   long[blocks] offsets of the blocks
+ * users    per user: UTF id, byte kind and the starting balance: long cents, UTF amount or nothing if unknown
+ * index    int[users + 1] first index entry of every user, then int[rows] row numbers
+ * </pre>
+ * The file is mapped for reading, only the blocks a query touches are paged in.
+ * <p>
+ * Usage: TransactionArchive archive.bin user_id [--declined | --history]
+ */
+final class TransactionArchive implements Closeable {
+    private static final int MAGIC = 0x54585841;
+    //version 1 had no code for an unknown type or method
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 * Integer.BYTES + Long.BYTES + Integer.BYTES + 3 * Long.BYTES;
+    private static final int BLOCK_HEADER_SIZE = 4 * Integer.BYTES;
+    static final int BLOCK_ROWS = 1 << 16;
+    //the index of all rows is mapped at once when the archive is committed
+    private static final int MAX_ROWS = Integer.MAX_VALUE / Integer.BYTES;
+
+    //bytes per row before each fixed-width column of a block, the columns of a block are n rows long
+    private static final int CENTS_COLUMN = 0;
+    private static final int USER = Long.BYTES;
+    private static final int TYPE = USER + Integer.BYTES;
+    private static final int METHOD = TYPE + 1;
+    private static final int STATUS = METHOD + 1;
+    private static final int REASON = STATUS + 1;
+    private static final int ID_ENDS = REASON + 1;
+    private static final int ACCOUNT_ENDS = ID_ENDS + Integer.BYTES;
+    private static final int ROW_WIDTH = ACCOUNT_ENDS + Integer.BYTES;
+
+    //amounts that do not fit in a long of cents are kept after the block, see amount
+    private static final long BIG_AMOUNT = Long.MIN_VALUE;
+    private static final byte CENTS = 0;
+    private static final byte BIG = 1;
+    private static final byte NO_BALANCE = 2;
+
+    private static final String[] TYPES = {"DEPOSIT", "WITHDRAW", "UNKNOWN"};
+    private static final String[] METHODS = {"CARD", "TRANSFER", "UNKNOWN"};
+    private static final String[] STATUSES = {Event.STATUS_APPROVED, Event.STATUS_DECLINED};
+    private static final Event.Reason[] REASONS = Event.Reason.values();
+
+    private final FileChannel channel;
+    private final long rows;
+    private final long[] blockOffsets;
+    private final MappedByteBuffer[] blocks;
+    private final String[] userIds;
+    private final Money[] balances;
+    private final Map<String, Integer> userIndexes;
+    private final long indexOffset;
+
+    private TransactionArchive(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || !supported(header.getInt())
+                || header.getInt() != BLOCK_ROWS) {
+            throw new IOException("Not a transaction archive");
+        }
+        int blockCount = header.getInt();
+        rows = header.getLong();
+        int userCount = header.getInt();
+        long blockTableOffset = header.getLong();
+        long userTableOffset = header.getLong();
+        indexOffset = header.getLong();
+
+        ByteBuffer blockTable = ByteBuffer.allocate(blockCount * Long.BYTES);
+        channel.read(blockTable, blockTableOffset);
+        blockOffsets = new long[blockCount + 1];
+        blockTable.flip().asLongBuffer().get(blockOffsets, 0, blockCount);
+        blockOffsets[blockCount] = blockTableOffset;
+        blocks = new MappedByteBuffer[blockCount];
+
+        userIds = new String[userCount];
+        balances = new Money[userCount];
+        userIndexes = new HashMap<>(Math.max(16, (int) (userCount / 0.75f) + 1));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(userTableOffset)), 1 << 16));
+        for (int i = 0; i < userCount; i++) {
+            userIds[i] = in.readUTF();
+            byte kind = in.readByte();
+            balances[i] = kind == CENTS ? Money.ofCents(in.readLong()) : kind == BIG ? Money.parse(in.readUTF()) : null;
+            userIndexes.put(userIds[i], i);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean declinedOnly = args.length > 2 && args[2].equals("--declined");
+        boolean history = args.length > 2 && args[2].equals("--history");
+        try (TransactionArchive archive = open(Paths.get(args[0]));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16)) {
+            int[] rows = archive.rows(args[1]);
+            if (history) {
+                //balances after every approved transaction, from the balance the user had when the run started
+                Money balance = archive.startingBalance(args[1]);
+                out.append("transaction_id,type,amount,balance\n");
+                if (balance == null) return;
+                out.append(",,,");
+                balance.appendTo(out);
+                out.append('\n');
+                for (int row : rows) {
+                    if (archive.reason(row) != Event.Reason.OK) continue;
+                    Money amount = archive.amount(row);
+                    balance = archive.type(row).equals("DEPOSIT") ? balance.plus(amount) : balance.minus(amount);
+                    out.append(archive.transactionId(row)).append(',').append(archive.type(row)).append(',');
+                    amount.appendTo(out);
+                    out.append(',');
+                    balance.appendTo(out);
+                    out.append('\n');
+                }
+                return;
+            }
+            out.append("transaction_id,type,amount,method,account_number,status,reason\n");
+            for (int row : rows) {
+                if (declinedOnly && archive.reason(row) == Event.Reason.OK) continue;
+                out.append(archive.transactionId(row)).append(',').append(archive.type(row)).append(',');
+                archive.amount(row).appendTo(out);
+                out.append(',').append(archive.method(row)).append(',').append(archive.accountNumber(row))
+                        .append(',').append(archive.status(row)).append(',').append(archive.reason(row).name()).append('\n');
+            }
+        }
+    }
+
+    /**
+     * @param filePath
+     * @return the archive, mapped block by block as the queries need them
+     * @throws IOException
+     */
+    static TransactionArchive open(Path filePath) throws IOException {
+        FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        try {
+            return new TransactionArchive(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param filePath
+     * @param users    users of the run, with the balances they start with
+     * @return writer of a new archive, the file appears when it is committed
+     * @throws IOException
+     */
+    static Writer create(Path filePath, UserRegistry users) throws IOException {
+        return new Writer(filePath, users);
+    }
+
+    /**
+     * @return number of rows
+     */
+    long size() {
+        return rows;
+    }
+
+    /**
+     * @param userId
+     * @return row numbers of the user in row order, empty if the user has none
+     * @throws IOException
+     */
+    int[] rows(String userId) throws IOException {
+        Integer user = userIndexes.get(userId);
+        if (user == null) return new int[0];
+        ByteBuffer starts = ByteBuffer.allocate(2 * Integer.BYTES);
+        channel.read(starts, indexOffset + (long) user * Integer.BYTES);
+        int from = starts.getInt(0);
+        int to = starts.getInt(Integer.BYTES);
+
+        int[] rows = new int[to - from];
+        long position = indexOffset + (long) (userIds.length + 1 + from) * Integer.BYTES;
+        channel.map(FileChannel.MapMode.READ_ONLY, position, (long) rows.length * Integer.BYTES).asIntBuffer().get(rows);
+        return rows;
+    }
+
+    /**
+     * @param userId
+     * @return balance of the user when the run started, null if the user was not in users.csv
+     */
+    Money startingBalance(String userId) {
+        Integer user = userIndexes.get(userId);
+        return user == null ? null : balances[user];
+    }
+
+    String transactionId(long row) throws IOException {
+        return string(row, ID_ENDS, 0);
+    }
+
+    String userId(long row) throws IOException {
+        return userIds[block(row).getInt(position(row, USER, Integer.BYTES))];
+    }
+
+    String type(long row) throws IOException {
+        return TYPES[block(row).get(position(row, TYPE, 1))];
+    }
+
+    Money amount(long row) throws IOException {
+        MappedByteBuffer block = block(row);
+        long cents = block.getLong(position(row, CENTS_COLUMN, Long.BYTES));
+        if (cents != BIG_AMOUNT) return Money.ofCents(cents);
+
+        //the few amounts that need a BigDecimal follow the account numbers
+        int i = (int) (row % BLOCK_ROWS);
+        int position = BLOCK_HEADER_SIZE + block.getInt(0) * ROW_WIDTH + block.getInt(2 * Integer.BYTES) + block.getInt(3 * Integer.BYTES);
+        for (int big = block.getInt(Integer.BYTES); big > 0; big--) {
+            int bigRow = block.getInt(position);
+            byte[] text = new byte[block.getShort(position + Integer.BYTES)];
+            block.get(position + Integer.BYTES + Short.BYTES, text);
+            if (bigRow == i) return Money.parse(new String(text, StandardCharsets.US_ASCII));
+            position += Integer.BYTES + Short.BYTES + text.length;
+        }
+        throw new IOException("Corrupt archive, no amount for row " + row);
+    }
+
+    String method(long row) throws IOException {
+        return METHODS[block(row).get(position(row, METHOD, 1))];
+    }
+
+    String accountNumber(long row) throws IOException {
+        MappedByteBuffer block = block(row);
+        return string(row, ACCOUNT_ENDS, block.getInt(2 * Integer.BYTES));
+    }
+
+    String status(long row) throws IOException {
+        return STATUSES[block(row).get(position(row, STATUS, 1))];
+    }
+
+    Event.Reason reason(long row) throws IOException {
+        return REASONS[block(row).get(position(row, REASON, 1))];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @param version of an archive file
+     * @return true if the file can be read, archives of version 1 only differ by never using the unknown code
+     */
+    private static boolean supported(int version) {
+        return version == 1 || version == VERSION;
+    }
+
+    /**
+     * @param values known values of the column, the last one stands for any other value
+     * @param value
+     * @return byte the value is stored as
+     */
+    private static byte code(String[] values, String value) {
+        for (int i = 0; i < values.length - 1; i++) {
+            if (values[i].equals(value)) return (byte) i;
+        }
+        return (byte) (values.length - 1);
+    }
+
+    private MappedByteBuffer block(long row) throws IOException {
+        if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        int b = (int) (row / BLOCK_ROWS);
+        MappedByteBuffer block = blocks[b];
+        if (block == null) {
+            block = channel.map(FileChannel.MapMode.READ_ONLY, blockOffsets[b], blockOffsets[b + 1] - blockOffsets[b]);
+            blocks[b] = block;
+        }
+        return block;
+    }
+
+    /**
+     * @param row
+     * @param column bytes per row of the columns before this one
+     * @param width  bytes per row of this column
+     * @return position of the value of the row in its block
+     */
+    private int position(long row, int column, int width) throws IOException {
+        return BLOCK_HEADER_SIZE + block(row).getInt(0) * column + (int) (row % BLOCK_ROWS) * width;
+    }
+
+    /**
+     * @param row
+     * @param ends  column of the end offsets of the strings
+     * @param bytes position of the strings after the end of the fixed-width columns
+     * @return the string of the row
+     */
+    private String string(long row, int ends, int bytes) throws IOException {
+        MappedByteBuffer block = block(row);
+        int end = position(row, ends, Integer.BYTES);
+        int from = row % BLOCK_ROWS == 0 ? 0 : block.getInt(end - Integer.BYTES);
+        byte[] text = new byte[block.getInt(end) - from];
+        block.get(BLOCK_HEADER_SIZE + block.getInt(0) * ROW_WIDTH + bytes + from, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the rows of a run to a new archive. The processing thread only hands the rows over in chunks, a
+     * background thread encodes them into the column buffers and writes a block every BLOCK_ROWS rows, so the archive
+     * costs the processing a few stores per row.
+     * <p>
+     * The archive is written to a temporary file next to the target and moved in place by commit, a run that fails
+     * leaves no partial archive behind.
+     */
+    static final class Writer implements Closeable {
+        private static final int CHUNK_SIZE = 1024;
+        //chunks handed over but not encoded yet
+        private static final int QUEUE_CHUNKS = 8;
+        private static final Chunk END = new Chunk();
+
+        private final Path filePath;
+        private final Path temporary;
+        private final FileChannel channel;
+
+        private final ByteBuffer blockHeader = ByteBuffer.allocateDirect(BLOCK_HEADER_SIZE);
+        private final ByteBuffer cents = ByteBuffer.allocateDirect(BLOCK_ROWS * Long.BYTES);
+        private final ByteBuffer users = ByteBuffer.allocateDirect(BLOCK_ROWS * Integer.BYTES);
+        private final ByteBuffer types = ByteBuffer.allocateDirect(BLOCK_ROWS);
+        private final ByteBuffer methods = ByteBuffer.allocateDirect(BLOCK_ROWS);
+        private final ByteBuffer statuses = ByteBuffer.allocateDirect(BLOCK_ROWS);
+        private final ByteBuffer reasons = ByteBuffer.allocateDirect(BLOCK_ROWS);
+        private final ByteBuffer idEnds = ByteBuffer.allocateDirect(BLOCK_ROWS * Integer.BYTES);
+        private final ByteBuffer accountEnds = ByteBuffer.allocateDirect(BLOCK_ROWS * Integer.BYTES);
+        private final StringColumn ids = new StringColumn(BLOCK_ROWS * 16);
+        private final StringColumn accounts = new StringColumn(BLOCK_ROWS * 32);
+        //amounts that do not fit in a long of cents, rare enough to go through a stream
+        private final ByteArrayOutputStream bigBytes = new ByteArrayOutputStream();
+        private final DataOutputStream bigAmounts = new DataOutputStream(bigBytes);
+        private int bigCount;
+
+        //users of users.csv keep their registry index, unknown user ids get the next free one
+        private final String[] userIds;
+        private final Money[] startingBalances;
+        private final Map<String, Integer> unknownUsers = new HashMap<>();
+        private String[] unknownIds = new String[16];
+        private int[] rowsPerUser;
+
+        private long[] blockOffsets = new long[16];
+        private int blockCount;
+        private int blockSize;
+        private long rows;
+        private boolean committed;
+
+        //filled by the processing thread, encoded by the archive thread
+        private Chunk chunk = new Chunk();
+        private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+        private final Thread encoder;
+        private volatile Exception failure;
+
+        private Writer(Path filePath, UserRegistry registry) throws IOException {
+            this.filePath = filePath;
+            //balances change during the run, the archive keeps the ones it started with
+            this.userIds = new String[registry.size()];
+            this.startingBalances = new Money[registry.size()];
+            for (User user : registry.getUsers()) {
+                userIds[user.getIndex()] = user.getId();
+                startingBalances[user.getIndex()] = user.getBalance();
+            }
+            this.rowsPerUser = new int[registry.size() + 16];
+            this.temporary = Files.createTempFile(filePath.toAbsolutePath().getParent(), filePath.getFileName().toString(), ".tmp");
+            this.channel = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(HEADER_SIZE);
+            this.encoder = new Thread(this::encode, "archive-writer");
+            encoder.setDaemon(true);
+            encoder.start();
+        }
+
+        /**
+         * @param transaction
+         * @param user  user of the transaction, null if it is not in users.csv
+         * @param event event written for the transaction
+         * @throws IOException if an earlier row could not be archived
+         */
+        void add(Transaction transaction, User user, Event event) throws IOException {
+            int i = chunk.size++;
+            chunk.transactions[i] = transaction;
+            chunk.users[i] = user;
+            chunk.events[i] = event;
+            if (chunk.size == CHUNK_SIZE) {
+                handOver(chunk);
+                chunk = new Chunk();
+            }
+        }
+
+        private void handOver(Chunk chunk) throws IOException {
+            if (failure != null) throw new IOException("Failed to write archive " + filePath, failure);
+            try {
+                queue.put(chunk);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing archive " + filePath, e);
+            }
+        }
+
+        private void encode() {
+            try {
+                Chunk next;
+                while ((next = queue.take()) != END) {
+                    //after a failure the chunks are only taken, so the processing is never blocked
+                    if (failure != null) continue;
+                    try {
+                        for (int i = 0; i < next.size; i++) encode(next.transactions[i], next.users[i], next.events[i]);
+                    } catch (IOException | RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                //the archive was discarded
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void encode(Transaction transaction, User user, Event event) throws IOException {
+            if (rows == MAX_ROWS) throw new IOException("Archive " + filePath + " is full");
+            int userIndex = user != null ? user.getIndex() : unknownUser(transaction.getUser_id());
+            rowsPerUser[userIndex]++;
+
+            Money amount = transaction.getAmount();
+            if (amount.isCents() && amount.getCents() != BIG_AMOUNT) {
+                cents.putLong(amount.getCents());
+            } else {
+                cents.putLong(BIG_AMOUNT);
+                String text = amount.toBigDecimal().toPlainString();
+                bigAmounts.writeInt(blockSize);
+                bigAmounts.writeShort(text.length());
+                bigAmounts.writeBytes(text);
+                bigCount++;
+            }
+            users.putInt(userIndex);
+            types.put(code(TYPES, transaction.getType()));
+            methods.put(code(METHODS, transaction.getMethod()));
+            statuses.put((byte) (event.reason == Event.Reason.OK ? 0 : 1));
+            reasons.put((byte) event.reason.ordinal());
+            idEnds.putInt(ids.add(transaction.getTransaction_id()));
+            accountEnds.putInt(accounts.add(transaction.getAccount_number()));
+
+            rows++;
+            if (++blockSize == BLOCK_ROWS) writeBlock();
+        }
+
+        /**
+         * Writes the last block, the tables and the index, and moves the archive in place.
+         *
+         * @throws IOException
+         */
+        void commit() throws IOException {
+            handOver(chunk);
+            handOver(END);
+            try {
+                encoder.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing archive " + filePath, e);
+            }
+            if (failure != null) throw new IOException("Failed to write archive " + filePath, failure);
+            if (blockSize > 0) writeBlock();
+            int userCount = userIds.length + unknownUsers.size();
+
+            long blockTableOffset = channel.position();
+            ByteBuffer blockTable = ByteBuffer.allocate(blockCount * Long.BYTES);
+            blockTable.asLongBuffer().put(blockOffsets, 0, blockCount);
+            writeFully(blockTable);
+
+            long userTableOffset = channel.position();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            for (int i = 0; i < startingBalances.length; i++) {
+                out.writeUTF(userIds[i]);
+                Money balance = startingBalances[i];
+                if (balance.isCents()) {
+                    out.writeByte(CENTS);
+                    out.writeLong(balance.getCents());
+                } else {
+                    out.writeByte(BIG);
+                    out.writeUTF(balance.toBigDecimal().toPlainString());
+                }
+            }
+            for (int i = 0; i < unknownUsers.size(); i++) {
+                out.writeUTF(unknownIds[i]);
+                out.writeByte(NO_BALANCE);
+            }
+
+            //a counting sort of the user column: the first entry of every user, then the rows in order
+            long indexOffset = userTableOffset + out.size();
+            int[] next = new int[userCount];
+            int start = 0;
+            for (int user = 0; user < userCount; user++) {
+                out.writeInt(start);
+                next[user] = start;
+                start += rowsPerUser[user];
+            }
+            out.writeInt(start);
+            out.flush();
+            long rowsOffset = channel.position();
+
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_WRITE, rowsOffset, rows * Integer.BYTES);
+            long row = 0;
+            for (int b = 0; b < blockCount; b++) {
+                int n = (int) Math.min(BLOCK_ROWS, rows - row);
+                ByteBuffer userColumn = channel.map(FileChannel.MapMode.READ_ONLY,
+                        blockOffsets[b] + BLOCK_HEADER_SIZE + (long) n * USER, (long) n * Integer.BYTES);
+                for (int i = 0; i < n; i++, row++) {
+                    index.putInt(next[userColumn.getInt(i * Integer.BYTES)]++ * Integer.BYTES, (int) row);
+                }
+            }
+            index.force();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(BLOCK_ROWS).putInt(blockCount).putLong(rows).putInt(userCount)
+                    .putLong(blockTableOffset).putLong(userTableOffset).putLong(indexOffset);
+            header.flip();
+            channel.write(header, 0);
+            channel.force(true);
+            channel.close();
+            Files.move(temporary, filePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            committed = true;
+        }
+
+        /**
+         * Discards the archive unless it was committed.
+         *
+         * @throws IOException
+         */
+        @Override
+        public void close() throws IOException {
+            encoder.interrupt();
+            channel.close();
+            if (!committed) Files.deleteIfExists(temporary);
+        }
+
+        private int unknownUser(String userId) {
+            Integer index = unknownUsers.get(userId);
+            if (index == null) {
+                index = userIds.length + unknownUsers.size();
+                if (unknownUsers.size() == unknownIds.length) unknownIds = Arrays.copyOf(unknownIds, unknownIds.length * 2);
+                unknownIds[unknownUsers.size()] = userId;
+                unknownUsers.put(userId, index);
+                if (index >= rowsPerUser.length) rowsPerUser = Arrays.copyOf(rowsPerUser, rowsPerUser.length * 2);
+            }
+            return index;
+        }
+
+        private void writeBlock() throws IOException {
+            if (blockCount == blockOffsets.length) blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+            blockOffsets[blockCount++] = channel.position();
+            blockHeader.clear();
+            blockHeader.putInt(blockSize).putInt(bigCount).putInt(ids.size).putInt(accounts.size).flip();
+            writeFully(blockHeader);
+            ByteBuffer[] columns = {cents, users, types, methods, statuses, reasons, idEnds, accountEnds};
+            for (ByteBuffer column : columns) {
+                writeFully(column.flip());
+                column.clear();
+            }
+            writeFully(ids.buffer());
+            writeFully(accounts.buffer());
+            writeFully(ByteBuffer.wrap(bigBytes.toByteArray()));
+            ids.size = 0;
+            accounts.size = 0;
+            bigBytes.reset();
+            bigCount = 0;
+            blockSize = 0;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Rows handed from the processing thread to the archive thread.
+     */
+    private static final class Chunk {
+        final Transaction[] transactions = new Transaction[Writer.CHUNK_SIZE];
+        final User[] users = new User[Writer.CHUNK_SIZE];
+        final Event[] events = new Event[Writer.CHUNK_SIZE];
+        int size;
+    }
+
+    /**
+     * UTF-8 bytes of the strings of a block, one after the other.
+     */
+    private static final class StringColumn {
+        private byte[] bytes;
+        private int size;
+
+        StringColumn(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        /**
+         * @param text
+         * @return end offset of the text
+         */
+        int add(String text) {
+            //one bulk copy, the encoder has a fast path for ASCII strings
+            byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length - size < encoded.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + encoded.length));
+            System.arraycopy(encoded, 0, bytes, size, encoded.length);
+            size += encoded.length;
+            return size;
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(bytes, 0, size);
+        }
+    }
+}
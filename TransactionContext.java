@@ -0,0 +1,145 @@
+package com.playtech.assignment;
+
+/**
+ * What the validation rules know about the transaction being checked. The user, the bank of the card and the verdict
+ * of the account are looked up the first time a rule asks for them and then shared by the later rules.
+ * <p>
+ * One context is reused for every transaction a thread checks, see reset.
+ */
+final class TransactionContext {
+    final UserRegistry users;
+    final BinIndex binMappings;
+    //null in contexts that only run the stateless rules or that go through a ledger
+    final TransactionIdSet processedIds;
+    final AccountRegistry accounts;
+    //set if several threads apply transactions at the same time
+    final Ledger ledger;
+
+    Transaction transaction;
+
+    private User user;
+    private boolean userResolved;
+    private BinMapping bank;
+    private int verdict;
+    private boolean verdictResolved;
+
+    /**
+     * @param users
+     * @param binMappings
+     * @param processedIds ids of the transactions seen so far, null if no stateful rule runs on this context
+     * @param accounts     owners and deposit history of the accounts, null if no stateful rule runs on this context
+     */
+    TransactionContext(UserRegistry users, BinIndex binMappings, TransactionIdSet processedIds, AccountRegistry accounts) {
+        this.users = users;
+        this.binMappings = binMappings;
+        this.processedIds = processedIds;
+        this.accounts = accounts;
+        this.ledger = null;
+    }
+
+    /**
+     * @param users
+     * @param binMappings
+     * @param ledger      seen ids and account history shared with other threads
+     */
+    TransactionContext(UserRegistry users, BinIndex binMappings, Ledger ledger) {
+        this.users = users;
+        this.binMappings = binMappings;
+        this.processedIds = null;
+        this.accounts = null;
+        this.ledger = ledger;
+    }
+
+    /**
+     * @param transaction next transaction to check
+     */
+    void reset(Transaction transaction) {
+        this.transaction = transaction;
+        this.userResolved = false;
+        this.user = null;
+        this.bank = null;
+        this.verdictResolved = false;
+    }
+
+    /**
+     * @param transaction next transaction to check
+     * @param user        its user, already looked up by another thread
+     */
+    void reset(Transaction transaction, User user) {
+        reset(transaction);
+        this.user = user;
+        this.userResolved = true;
+    }
+
+    /**
+     * @return user of the transaction, null if not found
+     */
+    User user() {
+        if (!userResolved) {
+            user = TransactionProcessorSample.findTransactionUser(transaction, users);
+            userResolved = true;
+        }
+        return user;
+    }
+
+    /**
+     * @return bank of the card, BinIndex.NONE if the account is not a card or the card is in no range
+     */
+    BinMapping bank() {
+        if (bank == null) {
+            bank = transaction.getMethod().equals("CARD") ? TransactionProcessorSample.findBank(transaction, binMappings) : BinIndex.NONE;
+        }
+        return bank;
+    }
+
+    /**
+     * @return verdict of the account, see AccountVerdictCache; cached across transactions for cards and IBANs
+     */
+    int verdict() {
+        if (!verdictResolved) {
+            verdict = resolveVerdict();
+            verdictResolved = true;
+        }
+        return verdict;
+    }
+
+    private int resolveVerdict() {
+        String method = transaction.getMethod();
+        boolean card = method.equals("CARD");
+        if (!card && !method.equals("TRANSFER")) {
+            return AccountVerdictCache.verdict(false, false, TransactionProcessorSample.accountCountry(transaction, bank()));
+        }
+        String account = transaction.getAccount_number();
+        int cached = binMappings.verdicts.get(account, card);
+        if (cached != AccountVerdictCache.MISSING) return cached;
+
+        int computed = AccountVerdictCache.verdict(TransactionProcessorSample.validatePaymentMethod(transaction, bank()), card,
+                TransactionProcessorSample.accountCountry(transaction, bank()));
+        binMappings.verdicts.put(account, computed);
+        return computed;
+    }
+
+    /**
+     * @param id
+     * @return true if the id was not seen before
+     */
+    boolean addId(CharSequence id) {
+        return ledger != null ? ledger.addId(id) : processedIds.add(id);
+    }
+
+    /**
+     * @param account
+     * @return state of the account, see AccountRegistry
+     */
+    int accountState(CharSequence account) {
+        return ledger != null ? ledger.accountState(account) : accounts.state(account);
+    }
+
+    /**
+     * @see AccountRegistry#approved
+     */
+    void approvedAccount(CharSequence account, int userIndex, boolean deposit) {
+        if (ledger != null) ledger.approved(account, userIndex, deposit);
+        else accounts.approved(account, userIndex, deposit);
+    }
+}
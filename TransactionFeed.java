@@ -0,0 +1,195 @@
+package com.playtech.assignment;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Transactions of several files, read and parsed by background threads and handed out in file order.
+ * <p>
+ * The input is a directory (every file in it), a glob pattern like "parts/transactions-*.csv.gz", or a single file.
+ * Files are taken in name order and the ones ending in .gz are decompressed while they are read, so split and
+ * compressed backups are processed without unpacking them first. Every file may start with the header row.
+ * <p>
+ * Each file gets a small queue of parsed chunks; the readers work on the next files while the current one is being
+ * processed, and stop when their queue is full, so memory stays bounded however many files there are.
+ */
+final class TransactionFeed implements Closeable {
+    private static final int CHUNK_SIZE = 1024;
+    //chunks a reader parses ahead of the processing
+    private static final int QUEUE_CHUNKS = 4;
+    private static final int READERS = 2;
+    private static final Object END = new Object();
+
+    private final List<Path> files;
+    private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+    private final ExecutorService readers;
+    private int current;
+
+    /**
+     * @param files   transaction files in processing order
+     * @param metrics
+     */
+    TransactionFeed(List<Path> files, Metrics metrics) {
+        this.files = files;
+        this.readers = Executors.newFixedThreadPool(Math.max(1, Math.min(READERS, files.size())), runnable -> {
+            Thread thread = new Thread(runnable, "transaction-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //the pool starts the files in order, so the file being consumed is always read before the later ones
+        for (Path file : files) {
+            BlockingQueue<Object> queue = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+            queues.add(queue);
+            readers.execute(() -> read(file, queue, metrics));
+        }
+    }
+
+    /**
+     * @param input directory, file, or a glob pattern with the wildcards in the file name
+     * @return the matching files in name order
+     * @throws IOException if nothing matches
+     */
+    static List<Path> files(String input) throws IOException {
+        List<Path> files = new ArrayList<>();
+        int wildcard = firstWildcard(input);
+        if (wildcard >= 0) {
+            int separator = Math.max(input.lastIndexOf('/', wildcard), input.lastIndexOf(File.separatorChar, wildcard));
+            Path directory = Paths.get(separator < 0 ? "." : input.substring(0, separator + 1));
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input.substring(separator + 1));
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory,
+                    entry -> Files.isRegularFile(entry) && matcher.matches(entry.getFileName()))) {
+                entries.forEach(files::add);
+            }
+        } else if (Files.isDirectory(Paths.get(input))) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(Paths.get(input), Files::isRegularFile)) {
+                entries.forEach(files::add);
+            }
+        } else {
+            files.add(Paths.get(input));
+        }
+        if (files.isEmpty()) throw new IOException("No transaction files match " + input);
+        files.sort(null);
+        return files;
+    }
+
+    private static int firstWildcard(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @param files
+     * @return true if the input is one uncompressed file, which is read directly and supports checkpoints
+     */
+    static boolean isPlainFile(List<Path> files) {
+        return files.size() == 1 && !files.get(0).getFileName().toString().endsWith(".gz");
+    }
+
+    /**
+     * @return next chunk of transactions in file order, null after the last one
+     * @throws IOException if a file could not be read or split into rows
+     */
+    Transaction[] nextChunk() throws IOException {
+        while (current < queues.size()) {
+            Object chunk;
+            try {
+                chunk = queues.get(current).take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + files.get(current), e);
+            }
+            if (chunk == END) {
+                //the queue is not needed anymore
+                queues.set(current, null);
+                current++;
+            } else if (chunk instanceof Exception e) {
+                throw new IOException("Failed to read " + files.get(current), e);
+            } else {
+                return (Transaction[]) chunk;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        readers.shutdownNow();
+    }
+
+    private static void read(Path file, BlockingQueue<Object> queue, Metrics metrics) {
+        try {
+            try (CsvReader reader = open(file)) {
+                Transaction[] chunk = new Transaction[CHUNK_SIZE];
+                int size = 0;
+                boolean first = true;
+                long time = metrics.now();
+                while (reader.next()) {
+                    try {
+                        //the header is a row too, a malformed one is skipped like any other
+                        if (first) {
+                            first = false;
+                            if (reader.column(0).toString().equalsIgnoreCase("transaction_id")) {
+                                time = metrics.now();
+                                continue;
+                            }
+                        }
+                        chunk[size] = TransactionProcessorSample.parseTransaction(reader);
+                        time = metrics.passed(Metrics.Stage.PARSE, time);
+                    } catch (RuntimeException e) {
+                        //unexpected errors only skip the row, the rest of the file is still processed
+                        System.err.println("Skipping transaction \"" + reader.line() + "\": " + e.getMessage());
+                        metrics.skipped();
+                        time = metrics.now();
+                        continue;
+                    }
+                    if (++size == CHUNK_SIZE) {
+                        queue.put(chunk);
+                        chunk = new Transaction[CHUNK_SIZE];
+                        size = 0;
+                        //time spent waiting for the consumer is not parsing
+                        time = metrics.now();
+                    }
+                }
+                if (size > 0) queue.put(Arrays.copyOf(chunk, size));
+                queue.put(END);
+            } catch (IOException | RuntimeException e) {
+                //row errors never get here, only read failures and bugs
+                //handed to the consumer, which would otherwise wait for the END of this file forever
+                queue.put(e);
+            }
+        } catch (InterruptedException e) {
+            //the feed was closed, nobody reads the queue anymore
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static CsvReader open(Path file) throws IOException {
+        if (!file.getFileName().toString().endsWith(".gz")) return new CsvReader(file);
+        InputStream in = Files.newInputStream(file);
+        try {
+            return new CsvReader(new GZIPInputStream(new BufferedInputStream(in, 1 << 16), 1 << 16));
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.playtech.assignment;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Set of the transaction ids seen so far, used for the uniqueness check.
+ * <p>
+ * Ids are packed into primitive open-addressing tables instead of keeping one String per transaction alive:
+ * lowercase UUIDs (8-4-4-4-12) take two longs, lowercase hex/decimal ids of up to 15 characters take one long
+ * (60 bits of digits plus the length, so "0a" and "a" stay different). Anything else falls back to a HashSet.
+ */
+class TransactionIdSet {
+    private static final float LOAD_FACTOR = 0.6f;
+    private static final int SHORT_MAX_LENGTH = 15;
+    private static final int UUID_LENGTH = 36;
+
+    //short ids: 0 is the empty slot, a packed id is never 0 because the length nibble is at least 1
+    private long[] shortIds;
+    private int shortSize;
+
+    //uuids: slot i lives at [2i, 2i + 1], the all-zero uuid is tracked separately because it would look empty
+    private long[] uuids;
+    private int uuidSize;
+    private boolean zeroUuid;
+
+    private final Set<String> otherIds = new HashSet<>();
+
+    TransactionIdSet() {
+        this(1 << 10);
+    }
+
+    /**
+     * @param expectedIds number of ids to size the tables for, they still grow past it
+     */
+    TransactionIdSet(int expectedIds) {
+        int capacity = tableCapacity(expectedIds);
+        shortIds = new long[capacity];
+        uuids = new long[capacity * 2];
+    }
+
+    /**
+     * @param id
+     * @return true if the id was not seen before
+     */
+    boolean add(CharSequence id) {
+        int length = id.length();
+        if (length == UUID_LENGTH && isLowerUuid(id)) {
+            return addUuid(uuidBits(id, 0, 18), uuidBits(id, 19, 36));
+        }
+        if (length > 0 && length <= SHORT_MAX_LENGTH) {
+            long packed = packShort(id);
+            if (packed != 0) return addShort(packed);
+        }
+        return otherIds.add(id.toString());
+    }
+
+    /**
+     * @param id
+     * @return true if the id was already added
+     */
+    boolean contains(CharSequence id) {
+        int length = id.length();
+        if (length == UUID_LENGTH && isLowerUuid(id)) {
+            return containsUuid(uuidBits(id, 0, 18), uuidBits(id, 19, 36));
+        }
+        if (length > 0 && length <= SHORT_MAX_LENGTH) {
+            long packed = packShort(id);
+            if (packed != 0) return shortIds[findShort(shortIds, packed)] == packed;
+        }
+        return otherIds.contains(id.toString());
+    }
+
+    int size() {
+        return shortSize + uuidSize + (zeroUuid ? 1 : 0) + otherIds.size();
+    }
+
+    /**
+     * Receives the ids of the set, see forEach.
+     */
+    interface IdAction {
+        /**
+         * @param id     buffer with the UTF-8 bytes of the id, only valid during the call
+         * @param length bytes of the id
+         * @throws IOException
+         */
+        void accept(byte[] id, int length) throws IOException;
+    }
+
+    /**
+     * @param action called with every id of the set, rebuilt from its packed form
+     * @throws IOException if the action throws it
+     */
+    void forEach(IdAction action) throws IOException {
+        byte[] id = new byte[UUID_LENGTH];
+        for (long packed : shortIds) {
+            if (packed != 0) action.accept(id, unpackShort(packed, id));
+        }
+        if (zeroUuid) action.accept(id, unpackUuid(0, 0, id));
+        for (int i = 0; i < uuids.length; i += 2) {
+            if (uuids[i] != 0 || uuids[i + 1] != 0) action.accept(id, unpackUuid(uuids[i], uuids[i + 1], id));
+        }
+        for (String other : otherIds) {
+            byte[] bytes = other.getBytes(StandardCharsets.UTF_8);
+            action.accept(bytes, bytes.length);
+        }
+    }
+
+    /**
+     * Removes every id, the tables keep their capacity.
+     */
+    void clear() {
+        Arrays.fill(shortIds, 0);
+        shortSize = 0;
+        Arrays.fill(uuids, 0);
+        uuidSize = 0;
+        zeroUuid = false;
+        otherIds.clear();
+    }
+
+    /**
+     * Writes the tables as they are, so reading them back needs no rehashing.
+     *
+     * @param out
+     * @throws IOException
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(shortSize);
+        writeLongs(out, shortIds);
+        out.writeInt(uuidSize);
+        out.writeBoolean(zeroUuid);
+        writeLongs(out, uuids);
+        out.writeInt(otherIds.size());
+        for (String id : otherIds) out.writeUTF(id);
+    }
+
+    /**
+     * @param in
+     * @return the set written by writeTo
+     * @throws IOException
+     */
+    static TransactionIdSet readFrom(DataInput in) throws IOException {
+        TransactionIdSet ids = new TransactionIdSet(0);
+        ids.shortSize = in.readInt();
+        ids.shortIds = readLongs(in);
+        ids.uuidSize = in.readInt();
+        ids.zeroUuid = in.readBoolean();
+        ids.uuids = readLongs(in);
+        for (int i = in.readInt(); i > 0; i--) ids.otherIds.add(in.readUTF());
+        return ids;
+    }
+
+    private static void writeLongs(DataOutput out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) out.writeLong(value);
+    }
+
+    private static long[] readLongs(DataInput in) throws IOException {
+        long[] values = new long[in.readInt()];
+        for (int i = 0; i < values.length; i++) values[i] = in.readLong();
+        return values;
+    }
+
+    private boolean addShort(long packed) {
+        int slot = findShort(shortIds, packed);
+        if (shortIds[slot] == packed) return false;
+        shortIds[slot] = packed;
+        if (++shortSize > shortIds.length * LOAD_FACTOR) growShort();
+        return true;
+    }
+
+    private boolean containsUuid(long high, long low) {
+        if (high == 0 && low == 0) return zeroUuid;
+        int slot = findUuid(uuids, high, low);
+        return uuids[slot] == high && uuids[slot + 1] == low;
+    }
+
+    private boolean addUuid(long high, long low) {
+        if (high == 0 && low == 0) {
+            if (zeroUuid) return false;
+            zeroUuid = true;
+            return true;
+        }
+        int slot = findUuid(uuids, high, low);
+        if (uuids[slot] == high && uuids[slot + 1] == low) return false;
+        uuids[slot] = high;
+        uuids[slot + 1] = low;
+        if (++uuidSize > (uuids.length >> 1) * LOAD_FACTOR) growUuids();
+        return true;
+    }
+
+    /**
+     * @return index of the slot holding the id, or of the empty slot where it belongs
+     */
+    private static int findShort(long[] table, long packed) {
+        int mask = table.length - 1;
+        int slot = mix(packed) & mask;
+        while (table[slot] != 0 && table[slot] != packed) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * @return array index of the high half of the slot holding the id, or of the empty slot where it belongs
+     */
+    private static int findUuid(long[] table, long high, long low) {
+        int mask = (table.length >> 1) - 1;
+        int slot = mix(high ^ Long.rotateLeft(low, 32)) & mask;
+        while (true) {
+            int i = slot << 1;
+            long h = table[i];
+            long l = table[i + 1];
+            if ((h == 0 && l == 0) || (h == high && l == low)) return i;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void growShort() {
+        long[] old = shortIds;
+        shortIds = new long[old.length * 2];
+        for (long packed : old) {
+            if (packed != 0) shortIds[findShort(shortIds, packed)] = packed;
+        }
+    }
+
+    private void growUuids() {
+        long[] old = uuids;
+        uuids = new long[old.length * 2];
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i] == 0 && old[i + 1] == 0) continue;
+            int slot = findUuid(uuids, old[i], old[i + 1]);
+            uuids[slot] = old[i];
+            uuids[slot + 1] = old[i + 1];
+        }
+    }
+
+    /**
+     * @return the id as hex digits in the upper 60 bits and its length in the lowest 4, 0 if it has other characters
+     */
+    private static long packShort(CharSequence id) {
+        long bits = 0;
+        int length = id.length();
+        for (int i = 0; i < length; i++) {
+            int digit = lowerHexDigit(id.charAt(i));
+            if (digit < 0) return 0;
+            bits = (bits << 4) | digit;
+        }
+        return (bits << 4) | length;
+    }
+
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * @param packed
+     * @param id     buffer for the id
+     * @return length of the id packShort was given, written to the buffer
+     */
+    private static int unpackShort(long packed, byte[] id) {
+        int length = (int) (packed & 0xf);
+        for (int i = length - 1; i >= 0; i--) {
+            packed >>>= 4;
+            id[i] = HEX_DIGITS[(int) (packed & 0xf)];
+        }
+        return length;
+    }
+
+    /**
+     * @param high
+     * @param low
+     * @param id   buffer for the id
+     * @return length of the lowercase uuid of the two halves uuidBits read, written to the buffer
+     */
+    private static int unpackUuid(long high, long low, byte[] id) {
+        for (int i = UUID_LENGTH - 1, digit = 0; i >= 0; i--) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                id[i] = '-';
+                continue;
+            }
+            //the last 16 digits are the low half
+            long bits = digit < 16 ? low >>> (4 * digit) : high >>> (4 * (digit - 16));
+            id[i] = HEX_DIGITS[(int) (bits & 0xf)];
+            digit++;
+        }
+        return UUID_LENGTH;
+    }
+
+    private static boolean isLowerUuid(CharSequence id) {
+        for (int i = 0; i < UUID_LENGTH; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') return false;
+            } else if (lowerHexDigit(c) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the 16 hex digits between from and to, skipping the dashes
+     */
+    private static long uuidBits(CharSequence id, int from, int to) {
+        long bits = 0;
+        for (int i = from; i < to; i++) {
+            char c = id.charAt(i);
+            if (c != '-') bits = (bits << 4) | lowerHexDigit(c);
+        }
+        return bits;
+    }
+
+    private static int lowerHexDigit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+
+    private static int mix(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    private static int tableCapacity(int expected) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expected) capacity <<= 1;
+        return capacity;
+    }
+}
@@ -1,8 +1,11 @@
 package com.playtech.assignment;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -13,636 +16,622 @@ import java.util.Objects;
 public class TransactionProcessorSample {
 
     public static void main(final String[] args) throws IOException {
-        List<User> users = TransactionProcessorSample.readUsers(Paths.get(args[0]));
-
-        Transaction testTrans = new Transaction("10403", 4, "DEPOSIT", 80.00, "CARD", "544918450459874888");
-        List<Transaction> transactions = TransactionProcessorSample.readTransactions(Paths.get(args[1]));
-        List<BinMapping> binMappings = TransactionProcessorSample.readBinMappings(Paths.get(args[2]));
-        List<Event> events = TransactionProcessorSample.processTransactions(users, transactions, binMappings);
+        //optional flags after the five paths
+        int threads = 1;
+        boolean scaling = false;
+        PrintStream metricsOut = null;
+        long metricsInterval = 0;
+        Path loadState = null;
+        Path saveState = null;
+        Path reference = null;
+        Path checkpoint = null;
+        long checkpointRows = 1_000_000;
+        boolean resume = false;
+        Path archive = null;
+        long maxMemory = 0;
+        Path spillDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+        for (int i = 5; i < args.length; i++) {
+            if (args[i].startsWith("--threads=")) threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            else if (args[i].equals("--scaling")) scaling = true;
+            else if (args[i].equals("--metrics")) metricsOut = System.err;
+            else if (args[i].startsWith("--metrics=")) metricsOut = new PrintStream(new FileOutputStream(args[i].substring("--metrics=".length()), true), true);
+            else if (args[i].startsWith("--metrics-interval=")) metricsInterval = Long.parseLong(args[i].substring("--metrics-interval=".length()));
+            else if (args[i].startsWith("--load-state=")) loadState = Paths.get(args[i].substring("--load-state=".length()));
+            else if (args[i].startsWith("--save-state=")) saveState = Paths.get(args[i].substring("--save-state=".length()));
+            else if (args[i].startsWith("--checkpoint=")) checkpoint = Paths.get(args[i].substring("--checkpoint=".length()));
+            else if (args[i].startsWith("--checkpoint-rows=")) checkpointRows = Long.parseLong(args[i].substring("--checkpoint-rows=".length()));
+            else if (args[i].equals("--resume")) resume = true;
+            else if (args[i].startsWith("--reference=")) reference = Paths.get(args[i].substring("--reference=".length()));
+            else if (args[i].startsWith("--archive=")) archive = Paths.get(args[i].substring("--archive=".length()));
+            else if (args[i].startsWith("--max-memory=")) maxMemory = parseSize(args[i].substring("--max-memory=".length()));
+            else if (args[i].startsWith("--spill-dir=")) spillDirectory = Paths.get(args[i].substring("--spill-dir=".length()));
+            else throw new IllegalArgumentException("Unknown option " + args[i]);
+        }
 
-        for (Event event : events) {
-            System.out.println(event.transactionId + ", " + event.status + ", " + event.message);
+        if (scaling) {
+            ParallelTransactionProcessor.reportScaling(Paths.get(args[0]), Paths.get(args[1]), Paths.get(args[2]));
+            return;
         }
 
-        TransactionProcessorSample.writeBalances(Paths.get(args[3]), users);
-        TransactionProcessorSample.writeEvents(Paths.get(args[4]), events);
-    }
+        //summaries go to stderr or are appended to a file as JSON lines
+        Metrics metrics = metricsOut != null ? new Metrics() : Metrics.DISABLED;
+        if (metricsOut != null && metricsInterval > 0) metrics.reportEvery(metricsOut, metricsInterval);
+
+        UserRegistry users;
+        BinIndex binMappings;
+        if (reference != null) {
+            //users and bins come from the compiled file, it is rebuilt first if a CSV is newer
+            ReferenceData referenceData = ReferenceData.open(Paths.get(args[0]), Paths.get(args[2]), reference);
+            users = referenceData.users;
+            binMappings = referenceData.binMappings;
+        } else {
+            users = TransactionProcessorSample.readUsers(Paths.get(args[0]));
+            binMappings = new BinIndex(TransactionProcessorSample.readBinMappings(Paths.get(args[2])));
+        }
 
-    private static List<User> readUsers(final Path filePath) {
-        List<User> userList = new ArrayList<>();
+        metrics.watch(binMappings.verdicts);
 
-        try {
-            //add all the users to a list for returning
-            for (String userRow : CSVtoStringList(filePath)) {
-                String[] user = userRow.split(",");
-
-                //add each user to list
-                userList.add(new User(Integer.parseInt(user[0]),     //ID
-                        user[1],                         //NAME
-                        Double.parseDouble(user[2]),     //BALANCE
-                        user[3],                         //COUNTRY
-                        user[4] == "1" ? true : false,    //FROZEN
-                        Double.parseDouble(user[5]),     //deposit_min
-                        Double.parseDouble(user[6]),     // deposit_max
-                        Double.parseDouble(user[7]),     //withdraw_min
-                        Double.parseDouble(user[8])));   //withdraw_max
-            }
+        //a restarted run continues from its last checkpoint, an incremental run from the state saved by the previous run
+        if (resume && checkpoint == null) throw new IllegalArgumentException("--resume needs --checkpoint=file");
+        //a spilling state lives in memory and in its spill files only, it cannot be saved or loaded
+        if (maxMemory > 0 && (loadState != null || saveState != null || checkpoint != null)) {
+            throw new IllegalArgumentException("--max-memory cannot be combined with --load-state, --save-state or --checkpoint");
+        }
+        ProcessingState state;
+        if (maxMemory > 0) state = ProcessingState.spilling(spillDirectory, maxMemory);
+        else if (resume && Files.exists(checkpoint)) state = ProcessingState.resume(checkpoint, users);
+        else if (loadState != null) state = ProcessingState.load(loadState, users);
+        else state = new ProcessingState();
+        if (checkpoint != null) state.checkpointEvery(checkpoint, checkpointRows);
+
+        //the transactions argument may also be a directory or a glob of files, .gz ones are decompressed while reading
+        List<Path> transactionFiles = TransactionFeed.files(args[1]);
+        boolean plainFile = TransactionFeed.isPlainFile(transactionFiles);
+        if (!plainFile && checkpoint != null) {
+            throw new IllegalArgumentException("--checkpoint needs a single uncompressed transactions file");
+        }
 
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+        //the archive has the rows of this run only, a resumed run would miss the ones before the checkpoint
+        if (archive != null && state.transactionsOffset > 0) {
+            throw new IllegalArgumentException("--archive cannot be combined with resuming from a checkpoint");
         }
-        return userList;
 
+        //transactions are streamed straight from the input into events.csv, they are never held in memory all at once
+        //closing the state deletes the files a spilling state kept on disk
+        try (state;
+             TransactionArchive.Writer archiveWriter = archive != null ? TransactionArchive.create(archive, users) : null) {
+            state.archiveTo(archiveWriter);
+            if (plainFile && threads > 1) {
+                new ParallelTransactionProcessor(threads, metrics).process(users, transactionFiles.get(0), binMappings, Paths.get(args[4]), state);
+            } else if (plainFile) {
+                TransactionProcessorSample.processTransactions(users, transactionFiles.get(0), binMappings, Paths.get(args[4]), metrics, state);
+            } else {
+                try (TransactionFeed feed = new TransactionFeed(transactionFiles, metrics)) {
+                    if (threads > 1) {
+                        new ParallelTransactionProcessor(threads, metrics).process(users, feed, binMappings, Paths.get(args[4]), state);
+                    } else {
+                        TransactionProcessorSample.processTransactions(users, feed, binMappings, Paths.get(args[4]), metrics, state);
+                    }
+                }
+            }
+            if (archiveWriter != null) archiveWriter.commit();
+        }
 
+        TransactionProcessorSample.writeBalances(Paths.get(args[3]), users);
+        if (saveState != null) state.save(saveState, users);
+        //the run is complete, a restart has nothing to resume
+        state.finish();
+        if (metricsOut != null) metrics.report(metricsOut, true);
     }
 
-    private static List<Transaction> readTransactions(final Path filePath) {
-        List<Transaction> transactionList = new ArrayList<>();
+    /**
+     * @param size number of bytes, optionally with a k, m or g suffix
+     * @return the size in bytes, more than 0
+     * @throws IllegalArgumentException if the size is empty, not a number, not positive or too large
+     */
+    static long parseSize(String size) {
+        if (size.isEmpty()) throw invalidSize(size, null);
+        long unit = switch (Character.toLowerCase(size.charAt(size.length() - 1))) {
+            case 'k' -> 1L << 10;
+            case 'm' -> 1L << 20;
+            case 'g' -> 1L << 30;
+            default -> 1;
+        };
+        long bytes;
         try {
-            for (String lineInfo : CSVtoStringList(filePath)) {
-                String[] transaction = lineInfo.split(",");
-                transactionList.add(new Transaction(transaction[0],   //transaction_id
-                        Integer.parseInt(transaction[1]),   //user_id
-                        transaction[2],                     //type
-                        Double.parseDouble(transaction[3]), //amount
-                        transaction[4],                     //method
-                        transaction[5]));                    //account_number
+            bytes = Math.multiplyExact(Long.parseLong(unit == 1 ? size : size.substring(0, size.length() - 1)), unit);
+        } catch (NumberFormatException | ArithmeticException e) {
+            throw invalidSize(size, e);
+        }
+        //0 would silently turn the limit off
+        if (bytes <= 0) throw invalidSize(size, null);
+        return bytes;
+    }
+
+    private static IllegalArgumentException invalidSize(String size, Exception cause) {
+        return new IllegalArgumentException("Invalid size \"" + size + "\", expected a positive number of bytes with an optional k, m or g suffix", cause);
+    }
+
+    /**
+     * @param filePath
+     * @return users of the file
+     * @throws IOException if the file cannot be read, the run cannot go on without its users
+     */
+    static UserRegistry readUsers(final Path filePath) throws IOException {
+        //the spec allows fewer than 1000 users
+        UserRegistry userList = new UserRegistry(1000);
+
+        try (CsvReader user = new CsvReader(filePath)) {
+            //first row is the header
+            user.next();
+
+            //index all the users by their id
+            while (user.next()) {
+                //add each user to the registry
+                userList.add(new User(user.string(0),           //ID
+                        user.string(1),                  //NAME
+                        user.parseMoney(2),              //BALANCE
+                        user.string(3),                  //COUNTRY
+                        user.equals(4, "1"),             //FROZEN
+                        user.parseMoney(5),              //deposit_min
+                        user.parseMoney(6),              // deposit_max
+                        user.parseMoney(7),              //withdraw_min
+                        user.parseMoney(8)));            //withdraw_max
             }
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
-        return transactionList;
+        return userList;
+    }
+
+    /**
+     *
+     * @param transaction current row of the transactions file
+     * @return Transaction built from the row
+     */
+    static Transaction parseTransaction(CsvReader transaction) {
+        return new Transaction(transaction.string(0),         //transaction_id
+                transaction.string(1),                            //user_id
+                transaction.string(2, "DEPOSIT", "WITHDRAW"),     //type
+                transaction.parseMoney(3),                        //amount
+                transaction.string(4, "CARD", "TRANSFER"),        //method
+                transaction.string(5));                           //account_number
     }
 
-    private static List<BinMapping> readBinMappings(final Path filePath) {
+    /**
+     * @param filePath
+     * @return BIN ranges of the file in file order
+     * @throws IOException if the file cannot be read
+     */
+    static List<BinMapping> readBinMappings(final Path filePath) throws IOException {
         List<BinMapping> binMappingList = new ArrayList<>();
-        try {
-            for (String lineInfo : CSVtoStringList(filePath)) {
-                String[] transaction = lineInfo.split(",");
-                binMappingList.add(new BinMapping(transaction[0], //name
-                        Long.parseLong(transaction[1]),           //range_from
-                        Long.parseLong(transaction[2]),           //range_to
-                        transaction[3],                           //type
-                        transaction[4]));                         //country
+        try (CsvReader binMapping = new CsvReader(filePath)) {
+            //first row is the header
+            binMapping.next();
+            while (binMapping.next()) {
+                binMappingList.add(new BinMapping(binMapping.string(0), //name
+                        binMapping.parseLong(1),                          //range_from
+                        binMapping.parseLong(2),                          //range_to
+                        binMapping.string(3, "DC", "CC"),                 //type
+                        binMapping.string(4)));                           //country
             }
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
         return binMappingList;
     }
 
     /**
+     * Streaming mode: every row is parsed, validated and written to events.csv before the next row is read,
+     * so memory depends on the users and accounts, not on the number of transactions.
      *
      * @param users
-     * @param transactions
+     * @param transactionsPath
      * @param binMappings
-     * @return message of transaction
+     * @param eventsPath
      * @throws IOException
-     *
-     * @note some of the checks are missing and the output is not currently functional
      */
-    private static List<Event> processTransactions(final List<User> users, final List<Transaction> transactions, final List<BinMapping> binMappings) throws IOException {
-        List<Event> events = new ArrayList<>();
-        Boolean skip = false;
-
-
-        for (Transaction transaction : transactions) {
-            User user = findTransactionUser(transaction, users);
-            skip = false;
-            for (Event eventCheck : events) {
-                if (eventCheck.transactionId != null) {
-                    //check if the transaction Id is unique
-                    if (!eventCheck.transactionId.equals(transaction.getTransaction_id())) {
-                        Event event = new Event();
-                        event.transactionId = transaction.getTransaction_id();
-                        event.status = Event.STATUS_DECLINED;
-                        event.message = "Transaction " + event.transactionId + " already processed (id non-unique)";
-                        events.add(event);
-                        skip = true;
-                        break;
-                    }
-                }
-
-            }
-            if (skip) continue;
-
-            //if user isnt validated
-            if (!userValidation(transaction.getUser_id(), users)) {
-                Event event = new Event();
-                event.status = Event.STATUS_DECLINED;
-                if (user != null) {
-                    event.message = user.getUsername() + " not found in Users or is frozen";
-                } else {
-                    event.message = "User not found";
-                }
-                events.add(event);
-
-            } else if (!validatePaymentMethod(transaction, binMappings)) {
-                Event event = new Event();
-                event.status = Event.STATUS_DECLINED;
-
-
-                if (transaction.getMethod().equals("TRANSFER"))
-                    event.message = "Invalid iban " + transaction.getAccount_number();
-                else if (transaction.getMethod().equals("CARD")) event.message = "Only DC cards allowed; got CC";
-                else event.message = "Not valid method in transaction: " + transaction.getMethod();
-                events.add(event);
-
-            } else if (!validateUsersCountry(transaction, binMappings, users)) {
-                Event event = new Event();
-                String userCountry = user.getCountry();
-                String bankCountry = ISO3toISO2(findBank(transaction, binMappings).getCountry());
-                event.status = Event.STATUS_DECLINED;
-                event.message = "Invalid account country " + userCountry + "; expected " + bankCountry;
-                events.add(event);
-                continue;
-
-            }
-            String amountValidationMessage = validateAmount(transaction, users);
-            if (!(amountValidationMessage.equals("OK"))) {
-                Event event = new Event();
-                event.status = Event.STATUS_DECLINED;
-                double amount = transaction.getAmount();
-
-                if (transaction.getType().equals("WITHDRAW")) {
-                    if (amountValidationMessage.equals("overW"))
-                        event.message = "Amount " + amount + " is over the withdraw limit of " + user.getWithdraw_max();
-                    if (amountValidationMessage.equals("underW"))
-                        event.message = "Amount " + amount + " is under the withdraw limit of " + user.getWithdraw_min();
-                }
-                if (transaction.getType().equals("DEPOSIT")) {
-                    if (amountValidationMessage.equals("overD"))
-                        event.message = "Amount " + amount + " is over the deposit limit of " + user.getDeposit_max();
-                    if (amountValidationMessage.equals("underD"))
-                        event.message = "Amount " + amount + " is under the deposit limit of " + user.getDeposit_min();
-                }
-                events.add(event);
-
-
-            } else if (!sufficientBalance(transaction, users)) {
-                Event event = new Event();
-                event.status = Event.STATUS_DECLINED;
-                event.message = "Not enough balance to withdraw " + transaction.getAmount() + " - balance is too low at " + user.getBalance();
-                events.add(event);
-
-            } else {
-                Event event = new Event();
-                event.transactionId = transaction.getTransaction_id();
-                event.status = Event.STATUS_APPROVED;
-                event.message = "OK";
-                events.add(event);
-            }
-        }
-
-        return events;
-    }
-
-    private static void writeBalances(final Path filePath, final List<User> users) {
-        // ToDo Implementation
+    static void processTransactions(final UserRegistry users, final Path transactionsPath, final BinIndex binMappings, final Path eventsPath) throws IOException {
+        processTransactions(users, transactionsPath, binMappings, eventsPath, Metrics.DISABLED);
     }
 
     /**
-     * @param userID
+     * Streaming mode that records the time and result of every stage.
+     *
      * @param users
-     * @return true if account is valid, false if account is frozen
+     * @param transactionsPath
+     * @param binMappings
+     * @param eventsPath
+     * @param metrics
+     * @throws IOException
      */
-    private static boolean userValidation(int userID, List<User> users) {
-        for (User user : users) {
-            if (userID == user.getId()) {
-                if (user.getFrozen()) return true;
-            }
-        }
-        return false;
+    static void processTransactions(final UserRegistry users, final Path transactionsPath, final BinIndex binMappings, final Path eventsPath, final Metrics metrics) throws IOException {
+        processTransactions(users, transactionsPath, binMappings, eventsPath, metrics, new ProcessingState());
     }
 
     /**
+     * Streaming mode that continues from the state of earlier runs.
      *
-     * @param transaction
+     * @param users
+     * @param transactionsPath
      * @param binMappings
-     * @return boolean
-     *
-     * @note validates transaction method
+     * @param eventsPath
+     * @param metrics
+     * @param state seen ids and account history, updated as the rows are processed
+     * @throws IOException
      */
-    private static boolean validatePaymentMethod(Transaction transaction, List<BinMapping> binMappings) {
-        String type = transaction.getMethod();
-        if (type.equals("TRANSFER")) {
-            //first four digits go to the end
-            StringBuilder IBAN = new StringBuilder(transaction.getAccount_number());
-            String firstFour = IBAN.substring(0, 4);
-            IBAN.delete(0, 4);
-            IBAN.append(firstFour);
-
-            //change the letters to numbers
-            for (int i = 0; i < IBAN.length(); i++) {
-                char letter = IBAN.charAt(i);
-
-                //if char is letter, convert it to numeric, then delete everything from the beginning of the letter, add the new numeric, then add the rest of the IBAN on top.
-                if (Character.isLetter(letter)) {
-                    String letterNumber = String.valueOf(Character.getNumericValue(letter));
-                    String afterLetter = IBAN.substring(i + 1, IBAN.length());
-                    IBAN.delete(i, IBAN.length());
-                    IBAN.append(letterNumber).append(afterLetter);
+    static void processTransactions(final UserRegistry users, final Path transactionsPath, final BinIndex binMappings, final Path eventsPath, final Metrics metrics, final ProcessingState state) throws IOException {
+        TransactionContext context = new TransactionContext(users, binMappings, state.processedIds, state.accounts);
+
+        try (CsvReader reader = openTransactions(transactionsPath, state);
+             CsvWriter writer = openEvents(eventsPath, state)) {
+            //parse time includes finding the next row
+            long time = metrics.now();
+            while (reader.next()) {
+                Event event;
+                try {
+                    context.reset(parseTransaction(reader));
+                    metrics.passed(Metrics.Stage.PARSE, time);
+                    event = processTransaction(context, metrics);
+                } catch (RuntimeException e) {
+                    //unexpected errors only skip the row, the rest of the file is still processed
+                    System.err.println("Skipping transaction \"" + reader.line() + "\": " + e.getMessage());
+                    metrics.skipped();
+                    time = metrics.now();
+                    continue;
+                }
+                time = metrics.now();
+                writeEvent(writer, event);
+                state.archive(context.transaction, context.user(), event);
+                time = metrics.passed(Metrics.Stage.WRITE, time);
+
+                if (state.checkpointDue(1)) {
+                    state.checkpoint(users, reader.nextRowOffset(), writer);
+                    time = metrics.now();
                 }
             }
-            //if 1 then valid, else not valid
-            return Dmod97(IBAN);
-        } else if (type.equals("CARD")) {
-
-            if (findBank(transaction, binMappings).getType().equals("DC")) return true;
-            return false;
-        } else return false;
+        }
     }
 
     /**
+     * Streaming mode over several transaction files, which are read and parsed in the background, see TransactionFeed.
      *
-     * @param transaction
+     * @param users
+     * @param feed
      * @param binMappings
-     * @return Binmapping object of the searched bank
+     * @param eventsPath
+     * @param metrics
+     * @param state seen ids and account history, updated as the rows are processed
+     * @throws IOException
      */
-    private static BinMapping findBank(Transaction transaction, List<BinMapping> binMappings) {
-        // 1: gets the first 10 letters of the cardNR
-        char[] firstTenChars = transaction.getAccount_number().toCharArray();
-        StringBuilder firstTenNR = new StringBuilder();
-        for (int i = 0; i < 10; i++) {
-            firstTenNR.append(firstTenChars[i]);
-        }
-
-        Long firstTenNrInt = Long.parseLong(String.valueOf(firstTenNR));
-        BinMapping noneFound = new BinMapping("none", 0, 0, "none", "none");
-        //check for the range to find if there is a bank that uses CC or DC
-
-        for (BinMapping binMapping : binMappings) {
-            if (binMapping.getRange_from() <= firstTenNrInt &&
-                    binMapping.getRange_to() >= firstTenNrInt) {
-                //because only DC is allowed
-                return binMapping;
+    static void processTransactions(final UserRegistry users, final TransactionFeed feed, final BinIndex binMappings, final Path eventsPath, final Metrics metrics, final ProcessingState state) throws IOException {
+        TransactionContext context = new TransactionContext(users, binMappings, state.processedIds, state.accounts);
+
+        try (CsvWriter writer = openEvents(eventsPath, state)) {
+            Transaction[] chunk;
+            while ((chunk = feed.nextChunk()) != null) {
+                for (Transaction transaction : chunk) {
+                    Event event;
+                    try {
+                        context.reset(transaction);
+                        event = processTransaction(context, metrics);
+                    } catch (RuntimeException e) {
+                        System.err.println("Skipping transaction \"" + transaction.getTransaction_id() + "\": " + e.getMessage());
+                        metrics.skipped();
+                        continue;
+                    }
+                    long time = metrics.now();
+                    writeEvent(writer, event);
+                    state.archive(transaction, context.user(), event);
+                    metrics.passed(Metrics.Stage.WRITE, time);
+                }
             }
         }
-        return noneFound;
-
-
     }
 
-    private static void writeEvents(final Path filePath, final List<Event> events) throws IOException {
-        try (final FileWriter writer = new FileWriter(filePath.toFile(), false)) {
-            writer.append("transaction_id,status,message\n");
-            for (final var event : events) {
-                writer.append(event.transactionId).append(",").append(event.status).append(",").append(event.message).append("\n");
-            }
-        }
+    /**
+     * @param transactionsPath
+     * @param state
+     * @return reader at the first row to process: after the header, or at the offset of the checkpoint
+     * @throws IOException
+     */
+    static CsvReader openTransactions(final Path transactionsPath, final ProcessingState state) throws IOException {
+        if (state.transactionsOffset > 0) return new CsvReader(transactionsPath, state.transactionsOffset);
+        CsvReader reader = new CsvReader(transactionsPath);
+        //first row is the header
+        reader.next();
+        return reader;
     }
 
     /**
-     *
-     * @param filePath
-     * @return List of info from CSV file
+     * @param eventsPath
+     * @param state
+     * @return writer of a new events file with its header, or appending at the offset of the checkpoint
      * @throws IOException
+     * @note events written after the checkpoint are cut off, their rows are processed again
      */
-    private static List<String> CSVtoStringList(Path filePath) throws IOException {
-        File file = new File(filePath.toString());
-        FileReader fr = new FileReader(file);
-        BufferedReader br = new BufferedReader(fr);
-        String line ;
-
-        List<String> lines = new ArrayList<>();
-        while ((line = br.readLine()) != null) {
-            lines.add(line);
+    static CsvWriter openEvents(final Path eventsPath, final ProcessingState state) throws IOException {
+        if (state.eventsOffset == 0) {
+            CsvWriter writer = new CsvWriter(eventsPath);
+            writer.append("transaction_id,status,message").endRow();
+            return writer;
+        }
+        FileChannel channel = FileChannel.open(eventsPath, StandardOpenOption.WRITE);
+        if (channel.size() < state.eventsOffset) {
+            channel.close();
+            throw new IOException("Events file " + eventsPath + " is shorter than at the checkpoint");
         }
-        lines.removeFirst();
-        br.close();
-        return lines;
+        channel.truncate(state.eventsOffset);
+        channel.position(state.eventsOffset);
+        return new CsvWriter(channel);
     }
 
     /**
+     * Runs every rule of the pipeline in order and stops at the first one that fails.
      *
-     * @param IBAN
-     * @note Check for IBAN
+     * @param context transaction to check, with the seen ids and account history of the run
+     * @param metrics
+     * @return event of the transaction
      */
-    private static Boolean Dmod97(StringBuilder IBAN) {
-        long N;
-        for (int i = 0; i < 3; i++) {
-
-            if (i == 0) {
-                N = Long.parseLong(IBAN.substring(0, 9)) % 97;
-                IBAN.delete(0, 9);
-                IBAN.insert(0, N);
-            } else {
-                N = Long.parseLong(IBAN.substring(0, 9)) % 97;
-                IBAN.delete(0, 9);
-                if (i != 3) IBAN.insert(0, N);
-
+    static Event processTransaction(final TransactionContext context, final Metrics metrics) {
+        long time = metrics.now();
+        for (ValidationRule rule : ValidationRule.PIPELINE) {
+            Event event = rule.check(context);
+            if (event != null) {
+                metrics.declined(rule.stage, time);
+                return event;
             }
-
+            time = metrics.passed(rule.stage, time);
         }
-        N = Long.parseLong(String.valueOf(IBAN)) % 97;
-        return N == 1;
+        return approve(context, metrics);
     }
 
     /**
+     * Runs the stateless rules of the pipeline, the ones that only depend on the transaction itself and on data that
+     * does not change during the run, so they can run on any thread and in any order.
      *
-     * @param ISO3
-     * @return ISO2 country code
-     * @throws IOException
+     * @param context transaction to check, processedIds and accounts are not used
+     * @param metrics
+     * @return DECLINED event of the first failing stateless rule, null if all of them pass
+     * @note the decline is counted by sequenceTransaction, only if no stateful rule before it declines the row
      */
-    private static String ISO3toISO2(String ISO3) throws IOException {
-        Path ISOcodes = Path.of("C:\\Users\\Simon\\Downloads\\Playtech Java Assignment 2024 1\\test-data\\manual test data 75% validations\\input\\ISOcodes.csv");
-        for (String code : CSVtoStringList(ISOcodes)) {
-            String[] line = code.split(",");
-            String codeISO3 = line[2];
-            String codeISO2 = line[1];
-
-            //remove "" symbols
-            String cleanedISO3 = codeISO3.substring(2, codeISO3.length() - 1);
-            String cleanedISO2 = codeISO2.substring(2, codeISO2.length() - 1);
-
-            if (cleanedISO3.equals(ISO3)) return cleanedISO2;
+    static Event validateTransaction(final TransactionContext context, final Metrics metrics) {
+        long time = metrics.now();
+        for (ValidationRule rule : ValidationRule.PIPELINE) {
+            if (rule.stateful) continue;
+            Event event = rule.check(context);
+            time = metrics.passed(rule.stage, time);
+            if (event != null) return event;
         }
-        return ISO3;
+        return null;
     }
 
-
     /**
+     * Runs the stateful rules of the pipeline (uniqueness, balance, account rules) and applies the transaction if it
+     * is approved. Must be called in input order.
      *
-     * @param transaction
-     * @param binMappings
-     * @param users
-     * @return boolean if the country info of the transaction is valid
-     * @throws IOException
+     * @param context transaction to check, with its user already resolved
+     * @param declined result of validateTransaction
+     * @param metrics
+     * @return event of the transaction, the same as processTransaction would return
      */
-    private static Boolean validateUsersCountry(Transaction transaction, List<BinMapping> binMappings, List<User> users) throws IOException {
-
-        String transactionCountry = findBank(transaction, binMappings).getCountry();
-        String userCountry = null;
-        userCountry = findTransactionUser(transaction, users).getCountry();
-
-        if (ISO3toISO2(transactionCountry).equals(userCountry)) return true;
-        return false;
+    static Event sequenceTransaction(final TransactionContext context, final Event declined, final Metrics metrics) {
+        ValidationRule declinedBy = declined == null ? null : ValidationRule.of(declined.reason);
+        long time = metrics.now();
+        for (ValidationRule rule : ValidationRule.PIPELINE) {
+            if (!rule.stateful) {
+                //the stateless rule already ran, its result counts once every rule before it has passed
+                if (rule == declinedBy) {
+                    metrics.declined(rule.stage);
+                    return declined;
+                }
+                continue;
+            }
+            Event event = rule.check(context);
+            if (event != null) {
+                metrics.declined(rule.stage, time);
+                return event;
+            }
+            time = metrics.passed(rule.stage, time);
+        }
+        return approve(context, metrics);
     }
 
-
     /**
+     * Applies a transaction that passed every rule to the balance and the account history.
      *
-     * @param transaction
-     * @param users
-     * @return user info based on transaction
+     * @param context
+     * @param metrics
+     * @return APPROVED event of the transaction
      */
-    private static User findTransactionUser(Transaction transaction, List<User> users) {
-        int userID = transaction.getUser_id();
-        for (User user : users) {
-
-            if (user.getId() == userID) {
-                return user;
+    private static Event approve(final TransactionContext context, final Metrics metrics) {
+        Transaction transaction = context.transaction;
+        User user = context.user();
+        boolean deposit = transaction.getType().equals("DEPOSIT");
+        if (deposit) user.setBalance(user.getBalance().plus(transaction.getAmount()));
+        else user.setBalance(user.getBalance().minus(transaction.getAmount()));
+        context.approvedAccount(transaction.getAccount_number(), user.getIndex(), deposit);
+        metrics.approved();
+        return Event.approved(transaction);
+    }
+
+    static void writeBalances(final Path filePath, final UserRegistry users) throws IOException {
+        try (final CsvWriter writer = new CsvWriter(filePath)) {
+            writer.append("user_id,balance").endRow();
+            for (final User user : users.getUsers()) {
+                writer.append(user.getId()).append(',').append(user.getBalance()).endRow();
             }
         }
-        return null;
+    }
 
+    /**
+     * @param user user of the transaction, null if not found
+     * @return true if account is valid, false if account is missing or frozen
+     */
+    static boolean userValidation(User user) {
+        return user != null && !user.getFrozen();
     }
 
     /**
      *
      * @param transaction
-     * @param users
-     * @return boolean if the user has sufficient balance for transaction
+     * @param binMappings
+     * @return boolean
+     *
+     * @note validates transaction method
      */
-    private static Boolean sufficientBalance(Transaction transaction, List<User> users) {
-        Double userBalance = findTransactionUser(transaction, users).getBalance();
-        if (userBalance < transaction.getAmount()) return false;
-        return true;
+    static boolean validatePaymentMethod(Transaction transaction, BinIndex binMappings) {
+        String type = transaction.getMethod();
+        if (type.equals("CARD")) return validatePaymentMethod(transaction, findBank(transaction, binMappings));
+        return validatePaymentMethod(transaction, BinIndex.NONE);
     }
 
     /**
      *
      * @param transaction
-     * @param users
-     * @return boolean if the transactions amount is valid based on the user
+     * @param bank bank of the card, BinIndex.NONE if the card is in no range or the account is not a card
+     * @return boolean
+     *
+     * @note validates transaction method
      */
-    private static String validateAmount(Transaction transaction, List<User> users) {
-        double amount = transaction.getAmount();
-
-        String type = transaction.getType();
-        User user = findTransactionUser(transaction, users);
-        if (user == null) return "user not found";
-        if (type.equals("DEPOSIT")) {
-            double depoMin = user.getDeposit_min();
-            double depoMax = user.getDeposit_max();
-            if (amount > depoMax) return "overD";
-            else if (amount <= depoMin) return "underD";
-            return "OK";
-        }
-        if (type.equals("WITHDRAW")) {
-            double withMin = user.getWithdraw_min();
-            double withMax = user.getWithdraw_max();
-            if (amount > withMax) return "overW";
-            if (amount <= withMin) return "underW";
-            return "OK";
-
-        }
-
-        return "Not allowed type";
-    }
-}
-
-
-class User {
-    private int id;
-
-    public int getId() {
-        return id;
-    }
-
-    public void setId(int id) {
-        this.id = id;
-    }
-
-    public String getUsername() {
-        return username;
-    }
-
-    public void setUsername(String username) {
-        this.username = username;
-    }
-
-    public double getBalance() {
-        return balance;
-    }
-
-    public void setBalance(double balance) {
-        this.balance = balance;
-    }
-
-    public String getCountry() {
-        return country;
-    }
-
-    public void setCountry(String country) {
-        this.country = country;
-    }
-
-    public Boolean getFrozen() {
-        return frozen;
-    }
-
-    public void setFrozen(Boolean frozen) {
-        this.frozen = frozen;
-    }
-
-    public double getDeposit_min() {
-        return deposit_min;
-    }
-
-    public void setDeposit_min(double deposit_min) {
-        this.deposit_min = deposit_min;
-    }
-
-    public double getDeposit_max() {
-        return deposit_max;
-    }
-
-    public void setDeposit_max(double deposit_max) {
-        this.deposit_max = deposit_max;
-    }
-
-    public double getWithdraw_min() {
-        return withdraw_min;
-    }
-
-    public void setWithdraw_min(double withdraw_min) {
-        this.withdraw_min = withdraw_min;
-    }
-
-    public double getWithdraw_max() {
-        return withdraw_max;
-    }
-
-    public void setWithdraw_max(double withdraw_max) {
-        this.withdraw_max = withdraw_max;
-    }
-
-    private String username;
-
-    private double balance;
-    private String country;
-
-    private Boolean frozen;
-    private double deposit_min;
-    private double deposit_max;
-    private double withdraw_min;
-    private double withdraw_max;
-
-    public User(int id, String username, double balance, String country, Boolean frozen, double deposit_min, double deposit_max, double withdraw_min, double withdraw_max) {
-        this.id = id;
-        this.username = username;
-        this.balance = balance;
-        this.country = country;
-        this.frozen = frozen;
-        this.deposit_min = deposit_min;
-        this.deposit_max = deposit_max;
-        this.withdraw_min = withdraw_min;
-        this.withdraw_max = withdraw_max;
-    }
-}
-
-class Transaction {
-    private String transaction_id;
-    private int user_id;
-    private String type;
-
-    private double amount;
-
-    private String method;
-
-    private String account_number;
+    static boolean validatePaymentMethod(Transaction transaction, BinMapping bank) {
+        String type = transaction.getMethod();
+        if (type.equals("TRANSFER")) {
+            //country length and mod 97 check digits
+            return IbanValidator.isValid(transaction.getAccount_number());
+        } else if (type.equals("CARD")) {
 
-    public String getTransaction_id() {
-        return transaction_id;
+            if (bank.getType().equals("DC")) return true;
+            return false;
+        } else return false;
     }
 
-    public int getUser_id() {
-        return user_id;
+    /**
+     *
+     * @param transaction
+     * @param binMappings
+     * @return Binmapping object of the searched bank, BinIndex.NONE if the card is in no range
+     */
+    static BinMapping findBank(Transaction transaction, BinIndex binMappings) {
+        //binary search on the first 10 digits of the cardNR
+        return binMappings.find(transaction.getAccount_number());
     }
 
-    public String getType() {
-        return type;
+    static void writeEvent(final CsvWriter writer, final Event event) throws IOException {
+        writer.append(event.transactionId).append(',').append(event.status).append(',');
+        //the message goes straight into the output buffer, it is never built as a String
+        event.appendMessage(writer);
+        writer.endRow();
     }
 
-    public double getAmount() {
-        return amount;
+    /**
+     *
+     * @param ISO3
+     * @return ISO2 country code, ISO3 itself if the country is unknown
+     */
+    static String ISO3toISO2(String ISO3) {
+        return CountryCodes.iso3ToIso2(ISO3);
     }
 
-    public String getMethod() {
-        return method;
-    }
 
-    public String getAccount_number() {
-        return account_number;
+    /**
+     *
+     * @param transaction
+     * @param bank bank of the card, BinIndex.NONE if the card is in no range or the account is not a card
+     * @param user
+     * @return boolean if the country info of the transaction is valid
+     */
+    static boolean validateUsersCountry(Transaction transaction, BinMapping bank, User user) {
+        return validateUsersCountry(accountCountry(transaction, bank), user);
     }
 
-
-    public Transaction(String transaction_id, int user_id, String type, double amount, String method, String account_number) {
-        this.transaction_id = transaction_id;
-        this.user_id = user_id;
-        this.type = resolvType(type);
-        this.amount = amount;
-        this.method = resolvMethod(method);
-        this.account_number = account_number;
+    /**
+     *
+     * @param accountCountry packed ISO2 country of the account, see accountCountry
+     * @param user
+     * @return boolean if the country info of the transaction is valid
+     */
+    static boolean validateUsersCountry(int accountCountry, User user) {
+        return accountCountry != CountryCodes.UNKNOWN && accountCountry == user.getCountryCode();
     }
 
-    private String resolvType(String type) {
-        if (type.equals("DEPOSIT") || type.equals("WITHDRAW")) return type;
-        else throw new RuntimeException("Type should be DEPOSIT or WITHDRAW.");
+    /**
+     *
+     * @param transaction
+     * @param bank bank of the card, BinIndex.NONE if the card is in no range or the account is not a card
+     * @return packed ISO2 country of the account, CountryCodes.UNKNOWN if it has none
+     */
+    static int accountCountry(Transaction transaction, BinMapping bank) {
+        //IBANs start with their country, cards get it from the bank; both are packed ISO2 codes
+        return transaction.getMethod().equals("TRANSFER")
+                ? CountryCodes.iso2Code(transaction.getAccount_number())
+                : bank.getCountryCode();
     }
 
-    private String resolvMethod(String method) {
-        if (method.equals("CARD") || method.equals("TRANSFER")) return method;
-        else throw new RuntimeException("Method should be CARD or TRANSFER.");
-
-    }
-}
 
-class BinMapping {
-    public String getName() {
-        return name;
+    /**
+     *
+     * @param transaction
+     * @param users
+     * @return user info based on transaction, null if the user does not exist
+     */
+    static User findTransactionUser(Transaction transaction, UserRegistry users) {
+        return users.find(transaction.getUser_id());
     }
 
-    public long getRange_from() {
-        return range_from;
+    /**
+     *
+     * @param transaction
+     * @param user
+     * @return boolean if the user has sufficient balance for transaction
+     */
+    static boolean sufficientBalance(Transaction transaction, User user) {
+        //deposits never need balance
+        if (!transaction.getType().equals("WITHDRAW")) return true;
+        return user.getBalance().compareTo(transaction.getAmount()) >= 0;
     }
 
-    public long getRange_to() {
-        return range_to;
+    /**
+     *
+     * @param transaction
+     * @param accountState state of the transaction's account, see AccountRegistry
+     * @return false if it is a withdrawal with an account that has no approved deposit
+     */
+    static boolean depositedAccount(Transaction transaction, int accountState) {
+        if (!transaction.getType().equals("WITHDRAW")) return true;
+        return AccountRegistry.hasDeposit(accountState);
     }
 
-    public String getType() {
-        return type;
+    /**
+     *
+     * @param user
+     * @param accountState state of the transaction's account, see AccountRegistry
+     * @return false if the account was already used by another user
+     */
+    static boolean accountOwner(User user, int accountState) {
+        return accountState == AccountRegistry.UNUSED || AccountRegistry.owner(accountState) == user.getIndex();
     }
 
-    public String getCountry() {
-        return country;
-    }
+    /**
+     *
+     * @param transaction
+     * @param user
+     * @return boolean if the transactions amount is valid based on the user
+     *
+     * @note limits are inclusive
+     */
+    static Event.Reason validateAmount(Transaction transaction, User user) {
+        Money amount = transaction.getAmount();
 
-    private String name;
-    private long range_from;
-    private long range_to;
-    private String type;
-    private String country;
-
-    public BinMapping(String name, long range_from, long range_to, String type, String country) {
-        this.name = name;
-        this.range_from = range_from;
-        this.range_to = range_to;
-        this.type = type;
-        this.country = country;
+        String type = transaction.getType();
+        if (user == null) return Event.Reason.USER_NOT_FOUND;
+        //the limits to check depend on the type
+        if (!type.equals("DEPOSIT") && !type.equals("WITHDRAW")) return Event.Reason.INVALID_TYPE;
+        //only positive amounts are valid
+        if (amount.signum() <= 0) return Event.Reason.INVALID_AMOUNT;
+        if (type.equals("DEPOSIT")) {
+            if (amount.compareTo(user.getDeposit_max()) > 0) return Event.Reason.OVER_DEPOSIT_LIMIT;
+            else if (amount.compareTo(user.getDeposit_min()) < 0) return Event.Reason.UNDER_DEPOSIT_LIMIT;
+            return Event.Reason.OK;
+        }
+        if (amount.compareTo(user.getWithdraw_max()) > 0) return Event.Reason.OVER_WITHDRAW_LIMIT;
+        if (amount.compareTo(user.getWithdraw_min()) < 0) return Event.Reason.UNDER_WITHDRAW_LIMIT;
+        return Event.Reason.OK;
     }
 }
-
-class Event {
-    public static final String STATUS_DECLINED = "DECLINED";
-    public static final String STATUS_APPROVED = "APPROVED";
-
-    public String transactionId;
-    public String status;
-    public String message;
-}
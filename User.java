@@ -0,0 +1,122 @@
+package com.playtech.assignment;
+
+class User {
+    private String id;
+    private int index;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return position of the user in the UserRegistry, used instead of the id in compact state
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public Money getBalance() {
+        return balance;
+    }
+
+    public void setBalance(Money balance) {
+        this.balance = balance;
+    }
+
+    public String getCountry() {
+        return country;
+    }
+
+    public void setCountry(String country) {
+        this.country = country;
+        this.countryCode = CountryCodes.iso2Code(country);
+    }
+
+    /**
+     * @return country as a packed ISO2 code, see CountryCodes
+     */
+    public int getCountryCode() {
+        return countryCode;
+    }
+
+    public boolean getFrozen() {
+        return frozen;
+    }
+
+    public void setFrozen(boolean frozen) {
+        this.frozen = frozen;
+    }
+
+    public Money getDeposit_min() {
+        return deposit_min;
+    }
+
+    public void setDeposit_min(Money deposit_min) {
+        this.deposit_min = deposit_min;
+    }
+
+    public Money getDeposit_max() {
+        return deposit_max;
+    }
+
+    public void setDeposit_max(Money deposit_max) {
+        this.deposit_max = deposit_max;
+    }
+
+    public Money getWithdraw_min() {
+        return withdraw_min;
+    }
+
+    public void setWithdraw_min(Money withdraw_min) {
+        this.withdraw_min = withdraw_min;
+    }
+
+    public Money getWithdraw_max() {
+        return withdraw_max;
+    }
+
+    public void setWithdraw_max(Money withdraw_max) {
+        this.withdraw_max = withdraw_max;
+    }
+
+    private String username;
+
+    private Money balance;
+    private String country;
+    private int countryCode;
+
+    private boolean frozen;
+    private Money deposit_min;
+    private Money deposit_max;
+    private Money withdraw_min;
+    private Money withdraw_max;
+
+    public User(String id, String username, Money balance, String country, boolean frozen, Money deposit_min, Money deposit_max, Money withdraw_min, Money withdraw_max) {
+        this.id = id;
+        this.username = username;
+        this.balance = balance;
+        this.country = country;
+        this.countryCode = CountryCodes.iso2Code(country);
+        this.frozen = frozen;
+        this.deposit_min = deposit_min;
+        this.deposit_max = deposit_max;
+        this.withdraw_min = withdraw_min;
+        this.withdraw_max = withdraw_max;
+    }
+}
@@ -0,0 +1,47 @@
+package com.playtech.assignment;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Users indexed by their user_id string (ids can be ints, hex or UUIDs), so a transaction needs one hash lookup
+ * instead of scanning the whole user list.
+ */
+class UserRegistry {
+    private final Map<String, User> users;
+
+    UserRegistry(int expectedUsers) {
+        //sized so the map never rehashes while loading
+        this.users = new LinkedHashMap<>(Math.max(16, (int) (expectedUsers / 0.75f) + 1));
+    }
+
+    /**
+     * @param user
+     * @note a later row with the same user_id replaces the earlier one and takes over its index
+     */
+    void add(User user) {
+        User previous = users.put(user.getId(), user);
+        user.setIndex(previous != null ? previous.getIndex() : users.size() - 1);
+    }
+
+    /**
+     * @param userId
+     * @return the user or null if there is no user with that id
+     */
+    User find(String userId) {
+        return users.get(userId);
+    }
+
+    /**
+     * @return all users in the order they were loaded
+     */
+    Collection<User> getUsers() {
+        return Collections.unmodifiableCollection(users.values());
+    }
+
+    int size() {
+        return users.size();
+    }
+}
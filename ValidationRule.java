@@ -0,0 +1,135 @@
+package com.playtech.assignment;
+
+/**
+ * The checks of a transaction, declared in the order they run. The first rule that fails gives the decline reason.
+ * <p>
+ * After the uniqueness and user checks, cheap comparisons come before lookups and the IBAN checksum. This is also
+ * the decline priority of the sample outputs: amount limits, balance, account history, country, then payment method.
+ * <p>
+ * Stateless rules only depend on the transaction and the reference data, so the parallel mode runs them ahead on
+ * other threads (TransactionProcessorSample.validateTransaction). Stateful rules depend on the transactions before
+ * this one and run in input order (TransactionProcessorSample.sequenceTransaction).
+ */
+enum ValidationRule {
+    UNIQUE_ID(true, Metrics.Stage.ID) {
+        @Override
+        Event check(TransactionContext context) {
+            Transaction transaction = context.transaction;
+            //every id counts as seen, also the ones of declined transactions
+            if (context.addId(transaction.getTransaction_id())) return null;
+            return Event.declined(transaction, Event.Reason.DUPLICATE_ID, null);
+        }
+    },
+    USER(false, Metrics.Stage.USER) {
+        @Override
+        Event check(TransactionContext context) {
+            User user = context.user();
+            if (TransactionProcessorSample.userValidation(user)) return null;
+            Transaction transaction = context.transaction;
+            return Event.declined(transaction, user == null ? Event.Reason.USER_NOT_FOUND : Event.Reason.USER_FROZEN, transaction.getUser_id());
+        }
+    },
+    AMOUNT(false, Metrics.Stage.AMOUNT) {
+        @Override
+        Event check(TransactionContext context) {
+            Transaction transaction = context.transaction;
+            User user = context.user();
+            Event.Reason reason = TransactionProcessorSample.validateAmount(transaction, user);
+            if (reason == Event.Reason.OK) return null;
+            if (reason == Event.Reason.INVALID_TYPE) return Event.declined(transaction, reason, transaction.getType());
+            Money limit = switch (reason) {
+                case OVER_DEPOSIT_LIMIT -> user.getDeposit_max();
+                case UNDER_DEPOSIT_LIMIT -> user.getDeposit_min();
+                case OVER_WITHDRAW_LIMIT -> user.getWithdraw_max();
+                case UNDER_WITHDRAW_LIMIT -> user.getWithdraw_min();
+                default -> null;
+            };
+            return Event.declined(transaction, reason, transaction.getAmount(), limit);
+        }
+    },
+    BALANCE(true, Metrics.Stage.BALANCE) {
+        @Override
+        Event check(TransactionContext context) {
+            Transaction transaction = context.transaction;
+            User user = context.user();
+            if (TransactionProcessorSample.sufficientBalance(transaction, user)) return null;
+            return Event.declined(transaction, Event.Reason.INSUFFICIENT_BALANCE, transaction.getAmount(), user.getBalance());
+        }
+    },
+    ACCOUNT(true, Metrics.Stage.ACCOUNT) {
+        @Override
+        Event check(TransactionContext context) {
+            Transaction transaction = context.transaction;
+            //one lookup serves both account rules
+            int accountState = context.accountState(transaction.getAccount_number());
+            if (!TransactionProcessorSample.depositedAccount(transaction, accountState))
+                return Event.declined(transaction, Event.Reason.NEW_ACCOUNT, transaction.getAccount_number());
+            if (!TransactionProcessorSample.accountOwner(context.user(), accountState))
+                return Event.declined(transaction, Event.Reason.ACCOUNT_IN_USE, transaction.getAccount_number());
+            return null;
+        }
+    },
+    COUNTRY(false, Metrics.Stage.COUNTRY) {
+        @Override
+        Event check(TransactionContext context) {
+            Transaction transaction = context.transaction;
+            String method = transaction.getMethod();
+            //an unknown method has no account country, PAYMENT_METHOD declines it
+            if (!method.equals("CARD") && !method.equals("TRANSFER")) return null;
+            User user = context.user();
+            if (TransactionProcessorSample.validateUsersCountry(AccountVerdictCache.country(context.verdict()), user)) return null;
+            Event event = transaction.getMethod().equals("TRANSFER")
+                    ? Event.declined(transaction, Event.Reason.ACCOUNT_COUNTRY, transaction.getAccount_number())
+                    : Event.declined(transaction, Event.Reason.CARD_COUNTRY, context.bank().getCountry());
+            event.country = user.getCountry();
+            return event;
+        }
+    },
+    PAYMENT_METHOD(false, Metrics.Stage.PAYMENT_METHOD) {
+        @Override
+        Event check(TransactionContext context) {
+            Transaction transaction = context.transaction;
+            if (AccountVerdictCache.valid(context.verdict())) return null;
+            if (transaction.getMethod().equals("TRANSFER"))
+                return Event.declined(transaction, Event.Reason.INVALID_IBAN, transaction.getAccount_number());
+            if (transaction.getMethod().equals("CARD")) return Event.declined(transaction, Event.Reason.CREDIT_CARD, null);
+            return Event.declined(transaction, Event.Reason.INVALID_METHOD, transaction.getMethod());
+        }
+    };
+
+    static final ValidationRule[] PIPELINE = values();
+
+    /**
+     * True if the rule depends on the transactions processed before
+     */
+    final boolean stateful;
+    final Metrics.Stage stage;
+
+    ValidationRule(boolean stateful, Metrics.Stage stage) {
+        this.stateful = stateful;
+        this.stage = stage;
+    }
+
+    /**
+     * @param context transaction to check, with the lookups done so far
+     * @return DECLINED event if the rule fails, null if it passes
+     */
+    abstract Event check(TransactionContext context);
+
+    /**
+     * @param reason
+     * @return rule that declines with the reason
+     */
+    static ValidationRule of(Event.Reason reason) {
+        return switch (reason) {
+            case DUPLICATE_ID -> UNIQUE_ID;
+            case USER_NOT_FOUND, USER_FROZEN -> USER;
+            case INVALID_TYPE, INVALID_AMOUNT, OVER_DEPOSIT_LIMIT, UNDER_DEPOSIT_LIMIT, OVER_WITHDRAW_LIMIT, UNDER_WITHDRAW_LIMIT -> AMOUNT;
+            case INSUFFICIENT_BALANCE -> BALANCE;
+            case NEW_ACCOUNT, ACCOUNT_IN_USE -> ACCOUNT;
+            case ACCOUNT_COUNTRY, CARD_COUNTRY -> COUNTRY;
+            case INVALID_IBAN, CREDIT_CARD, INVALID_METHOD -> PAYMENT_METHOD;
+            case OK -> throw new IllegalArgumentException("OK is not a decline");
+        };
+    }
+}